@@ -0,0 +1,22 @@
+#!/bin/sh
+# Builds an AppCDS archive for the fat JAR (JDK 13+ dynamic archive).
+#
+# One training run starts the alerter, evaluates the first metric and exits
+# (startup.exitAfterFirstEval=true: Telegram is dry-run, alert state goes to
+# state-startup, no push / metrics / shard endpoints); the JVM dumps every
+# class it loaded into the archive.
+# Run it in the deployment directory (metricsettings.xml, alerter.properties,
+# item cache) after every JAR build: the archive is only valid for the exact
+# JAR and JDK it was built with; a stale one is ignored with a warning.
+#
+#   ./appcds.sh [ZabbixAlerter.jar]
+#   java -XX:SharedArchiveFile=ZabbixAlerter.jsa -jar ZabbixAlerter.jar
+set -e
+JAR=${1:-ZabbixAlerter.jar}
+JSA=${JAR%.jar}.jsa
+
+rm -f "$JSA"
+java -XX:ArchiveClassesAtExit="$JSA" -jar "$JAR" startup.exitAfterFirstEval=true \
+    || echo "No evaluation before startup.exitTimeoutSec; the archive covers startup only"
+echo "AppCDS archive: $JSA"
+echo "Start with: java -XX:SharedArchiveFile=$JSA -jar $JAR"
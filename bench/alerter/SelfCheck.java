@@ -0,0 +1,218 @@
+package alerter;
+
+import config.Metric;
+import zabbix.JsonRpcCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SelfCheck
+ * ---------
+ * Self-checking main for the parts whose edge cases are easy to break and
+ * hard to see in a live run:
+ *   • value parsing – decimal comma, signs, text, exponents (JsonRpcCodec)
+ *   • expressions   – precedence, associativity, NaN inputs, compile errors
+ *   • rule windows  – AVG / RATE through time and capacity eviction, AVG drift
+ *   • alert journal – replay after a record torn by a crash, appending after it
+ * Every failed check is printed; the exit code is the number of failures.
+ *
+ * Run: java -cp out:lib/* alerter.SelfCheck
+ */
+public class SelfCheck {
+
+    private static int checks, failures;
+
+    public static void main(String[] args) throws Exception {
+        parsing();
+        expressions();
+        windows();
+        journal();
+        System.out.printf("%d check(s), %d failure(s)%n", checks, failures);
+        System.exit(failures);
+    }
+
+    /* ---------------- value parsing ---------------- */
+
+    private static void parsing() throws IOException {
+        near("parse 0,05", parse("0,05"), 0.05);
+        near("parse 0.05", parse("0.05"), 0.05);
+        near("parse -12,5", parse("-12,5"), -12.5);
+        near("parse +7", parse("+7"), 7);
+        near("parse 1e3", parse("1e3"), 1000);
+        near("parse 1,5e2", parse("1,5e2"), 150);
+        near("parse 19 digits", parse("1234567890123456789"), 1234567890123456789d);
+        check("parse text is NaN", Double.isNaN(parse("up")));
+        check("parse empty is NaN", Double.isNaN(parse("")));
+    }
+
+    /** Value of one history record through the streaming codec */
+    private static double parse(String value) throws IOException {
+        String body = "{\"jsonrpc\":\"2.0\",\"result\":[{\"itemid\":\"1\",\"clock\":\"100\",\"value\":\""
+                + value + "\"}],\"id\":1}";
+        double[] out = { Double.NEGATIVE_INFINITY };
+        JsonRpcCodec.readHistory(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+                (itemId, clock, v) -> out[0] = v);
+        return out[0];
+    }
+
+    /* ---------------- expressions ---------------- */
+
+    private static void expressions() {
+        double[] in = { 50, 100, 97, 80, Double.NaN };
+        near("2+3*4", eval("2+3*4", in), 14);
+        near("(2+3)*4", eval("(2+3)*4", in), 20);
+        near("10-4-3", eval("10-4-3", in), 3);
+        near("8/4/2", eval("8/4/2", in), 1);
+        near("-(1+2)*abs(-2)", eval("-(1+2)*abs(-2)", in), -6);
+        near("--3", eval("--3", in), 3);
+        near("min/max args", eval("max(1, min(7, 3), 2)", in), 3);
+        near("last ratio", eval("last(\"db\", \"used\") / last(\"db\", \"total\")", in), 0.5);
+        near("max skips NaN", eval("max(\"web*\", \"cpu\")", in), 97);
+        near("avg skips NaN", eval("avg(\"web*\", \"cpu\")", in), 88.5);
+        near("count skips NaN", eval("count(\"web*\", \"cpu\")", in), 2);
+        check("NaN input propagates", Double.isNaN(eval("last(\"web3\", \"cpu\") + 1", in)));
+        check("x/0 is NaN", Double.isNaN(eval("1/(2-2)", in)));
+        check("ratio over a zero total is NaN",
+                Double.isNaN(eval("last(\"db\", \"used\") / last(\"db\", \"total\")", new double[] { 5, 0 })));
+
+        rejects("unknown function", "foo(1)");
+        rejects("dangling operator", "1+");
+        rejects("unbalanced parenthesis", "(1+2");
+        rejects("trailing input", "1 2");
+        rejects("no matching metric", "last(\"nope\", \"x\")");
+        rejects("last over several metrics", "last(\"web*\", \"cpu\")");
+    }
+
+    /** Inputs: db/used = 0, db/total = 1, web1..web3/cpu = 2..4 */
+    private static final Expression.Inputs INPUTS = (host, key) -> {
+        if (host.equals("db")) return key.equals("used") ? new int[] { 0 } : new int[] { 1 };
+        if (host.equals("web*")) return new int[] { 2, 3, 4 };
+        if (host.equals("web3")) return new int[] { 4 };
+        return new int[0];
+    };
+
+    private static double eval(String expr, double[] in) {
+        try {
+            return Expression.compile(expr, INPUTS).eval(in);
+        } catch (IllegalArgumentException e) {
+            check(expr + " compiles: " + e.getMessage(), false);
+            return Double.NaN;
+        }
+    }
+
+    private static void rejects(String what, String expr) {
+        try {
+            Expression.compile(expr, INPUTS);
+            check(what + " rejected: " + expr, false);
+        } catch (IllegalArgumentException e) {
+            check(what, true);
+        }
+    }
+
+    /* ---------------- rule windows ---------------- */
+
+    private static void windows() {
+        RuleWindow avg = window(Metric.Aggregate.AVG, 1);
+        check("AVG empty is NaN", Double.isNaN(avg.value()));
+        near("AVG one point", avg.push(0, 10), 10);
+        near("AVG two points", avg.push(30, 20), 15);
+        near("AVG evicts the point a span old", avg.push(60, 30), 25);
+        near("AVG after a gap keeps the newest", avg.push(500, 4), 4);
+
+        RuleWindow rate = window(Metric.Aggregate.RATE, 1);
+        check("RATE one point is NaN", Double.isNaN(rate.push(0, 100)));
+        near("RATE two points", rate.push(30, 160), 2);
+        near("RATE after eviction", rate.push(60, 220), 2);
+        near("RATE negative", rate.push(90, 100), -4);
+
+        RuleWindow full = window(Metric.Aggregate.AVG, 60);     // an hour at 1 s > CAPACITY
+        for (int i = 1; i <= RuleWindow.CAPACITY + 88; i++) full.push(i, i);
+        near("AVG at capacity covers the newest points", full.value(), 88 + (RuleWindow.CAPACITY + 1) / 2.0);
+
+        RuleWindow drift = window(Metric.Aggregate.AVG, 1);
+        long t = 0;
+        for (int i = 0; i < 1000; i++) drift.push(++t, 1e12 + i);
+        for (int i = 0; i < 2 * RuleWindow.CAPACITY; i++) drift.push(++t, 0.001);
+        near("AVG does not keep the rounding error of evicted points", drift.value(), 0.001);
+
+        RuleWindow last = window(Metric.Aggregate.LAST, 1);
+        last.push(1, 5);
+        near("LAST keeps only the newest", last.push(2, 7), 7);
+        check("lastClock", last.lastClock() == 2 && drift.lastClock() == t);
+    }
+
+    private static RuleWindow window(Metric.Aggregate aggregate, int minutes) {
+        Metric m = new Metric();
+        m.setAggregate(aggregate);
+        m.setWindowMinutes(minutes);
+        return new RuleWindow(m);
+    }
+
+    /* ---------------- alert journal ---------------- */
+
+    private static final int RECORD = 18;          // AlertJournal record size, op byte first
+
+    private static void journal() throws Exception {
+        Path dir = Files.createTempDirectory("selfcheck-journal");
+        Path file = dir.resolve("alerts.journal");
+        long hour = 3_600_000;
+
+        AlertJournal j = AlertJournal.open(dir, 100 * RECORD, hour, new HashMap<>());
+        j.start();
+        j.append(1, AlertManager.AlertType.OVER);
+        j.append(2, AlertManager.AlertType.UNDER);
+        j.append(1, null);
+        j.append(3, AlertManager.AlertType.OVER);
+        check("journal written", awaitRecords(file, 4));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(3 * RECORD);
+            raf.write(0);                           // crash before the op byte of the 4th record
+        }
+        Map<Long, AlertManager.AlertType> state = new HashMap<>();
+        AlertJournal reopened = AlertJournal.open(dir, 100 * RECORD, hour, state);
+        check("torn record ignored, earlier ones replayed: " + state,
+                state.equals(Map.of(2L, AlertManager.AlertType.UNDER)));
+
+        reopened.start();
+        reopened.append(4, AlertManager.AlertType.OVER);
+        check("append resumes at the torn record", awaitRecords(file, 4));
+        state.clear();
+        AlertJournal.open(dir, 100 * RECORD, hour, state);
+        check("replay after the rewrite: " + state,
+                state.equals(Map.of(2L, AlertManager.AlertType.UNDER, 4L, AlertManager.AlertType.OVER)));
+
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    /** Waits (up to 5 s) until the journal holds n complete records */
+    private static boolean awaitRecords(Path file, int n) throws Exception {
+        for (long end = System.currentTimeMillis() + 5000; System.currentTimeMillis() < end; Thread.sleep(20)) {
+            byte[] b = Files.readAllBytes(file);
+            if (b.length >= n * RECORD && b[(n - 1) * RECORD] != 0) return true;
+        }
+        return false;
+    }
+
+    /* ---------------- helpers ---------------- */
+
+    private static void check(String what, boolean ok) {
+        checks++;
+        if (ok) return;
+        failures++;
+        System.out.println("FAIL " + what);
+    }
+
+    private static void near(String what, double actual, double expected) {
+        check(what + " = " + actual + ", expected " + expected,
+                Math.abs(actual - expected) <= 1e-9 * Math.max(1, Math.abs(expected)));
+    }
+}
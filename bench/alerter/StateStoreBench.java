@@ -0,0 +1,131 @@
+package alerter;
+
+import config.Metric;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * StateStoreBench
+ * ---------------
+ * Allocation / throughput of the per-metric state path of an evaluation
+ * (last value + hysteresis + alert transitions), without notifications:
+ *   before = ConcurrentMap<Long, AlertType> + ConcurrentMap<Long, Double>,
+ *            up to three wasAlerted() lookups per metric
+ *   after  = slot-indexed StateStore behind AlertManager's Metric overloads
+ *
+ * Run: java -cp out:lib/* alerter.StateStoreBench [metrics] [rounds]
+ * Allocation is measured per thread with com.sun.management.ThreadMXBean.
+ */
+public class StateStoreBench {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;              // defeats dead-code elimination
+
+    public static void main(String[] args) {
+        int n      = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        List<Metric> metrics = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Metric m = new Metric();
+            m.setHost("host" + (i % 1000));
+            m.setKey("key" + i);
+            m.setMetricId(1_000_000L + i);
+            m.setThresholdHigh(90);
+            m.setThresholdLow(80);
+            m.setAlertType(i % 2 == 0 ? Metric.AlertType.MAX : Metric.AlertType.MIN);
+            metrics.add(m);
+        }
+        AlertManager.register(metrics);
+
+        /* a few value sets; ~2 % of metrics cross a threshold between rounds */
+        Random rnd = new Random(1);
+        double[][] values = new double[8][n];
+        for (double[] set : values)
+            for (int i = 0; i < n; i++) set[i] = rnd.nextInt(100) < 2 ? rnd.nextDouble() * 200 : 85;
+
+        ConcurrentMap<Long, AlertManager.AlertType> alerts = new ConcurrentHashMap<>();
+        ConcurrentMap<Long, Double> lastValues = new ConcurrentHashMap<>();
+
+        System.out.printf("%d metrics, %d rounds%n", n, rounds);
+        System.out.printf("%-24s %14s %14s%n", "case", "bytes/metric", "ns/metric");
+
+        run("maps (before)", rounds, n, r -> {
+            double[] set = values[r & 7];
+            for (int i = 0; i < n; i++) evaluateMaps(metrics.get(i), set[i], alerts, lastValues);
+        });
+        run("state store (after)", rounds, n, r -> {
+            double[] set = values[r & 7];
+            for (int i = 0; i < n; i++) evaluateStore(metrics.get(i), set[i], 1_700_000_000L + r);
+        });
+        System.out.printf("active alerts: before=%d after=%d%n", alerts.size(), AlertManager.activeCount());
+        if (sink == 42) System.out.println();
+    }
+
+    /* ---------------- cases ---------------- */
+
+    /** The map-based logic as MetricPoller used it before the state store */
+    private static void evaluateMaps(Metric m, double v,
+                                     ConcurrentMap<Long, AlertManager.AlertType> alerts,
+                                     ConcurrentMap<Long, Double> lastValues) {
+        Long id = m.getMetricId();
+        lastValues.put(id, v);
+        if (alerts.get(id) == AlertManager.AlertType.OLD_VALUE) alerts.remove(id);
+        if (m.isMaxType()) {
+            if (v >= m.getThresholdHigh() && alerts.get(id) != AlertManager.AlertType.OVER) {
+                alerts.put(id, AlertManager.AlertType.OVER);
+                sink++;
+            } else if (v <= m.getThresholdLow() && alerts.get(id) == AlertManager.AlertType.OVER) {
+                alerts.remove(id);
+                sink++;
+            }
+        } else {
+            if (v <= m.getThresholdLow() && alerts.get(id) != AlertManager.AlertType.UNDER) {
+                alerts.put(id, AlertManager.AlertType.UNDER);
+                sink++;
+            } else if (v >= m.getThresholdHigh() && alerts.get(id) == AlertManager.AlertType.UNDER) {
+                alerts.remove(id);
+                sink++;
+            }
+        }
+    }
+
+    /** The slot-based path MetricPoller.evaluate takes now */
+    private static void evaluateStore(Metric m, double v, long clock) {
+        AlertManager.state().recordValue(m.getSlot(), v, clock);
+        AlertManager.AlertType active = AlertManager.getAlert(m);
+        if (active == AlertManager.AlertType.OLD_VALUE) {
+            AlertManager.clearAlert(m);
+            active = null;
+        }
+        AlertManager.AlertType next = MetricPoller.hysteresis(m, v, active);
+        if (next != active) {
+            if (next != null) AlertManager.setAlert(m, next);
+            else AlertManager.clearAlert(m);
+            sink++;
+        }
+    }
+
+    /* ---------------- harness ---------------- */
+
+    private interface Round { void run(int round); }
+
+    private static void run(String name, int rounds, int perRound, Round body) {
+        for (int i = 0; i < Math.max(5, rounds / 2); i++) body.run(i);          // warm-up
+
+        long tid = Thread.currentThread().getId();
+        long alloc0 = THREADS.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) body.run(i);
+        long ns = System.nanoTime() - t0;
+        long alloc = THREADS.getThreadAllocatedBytes(tid) - alloc0;
+
+        double ops = (double) rounds * perRound;
+        System.out.printf("%-24s %14.2f %14.1f%n", name, alloc / ops, ns / ops);
+    }
+}
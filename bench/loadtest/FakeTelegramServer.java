@@ -0,0 +1,105 @@
+package loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FakeTelegramServer
+ * ------------------
+ * Local stand-in for the Bot API sendMessage call. Answers every
+ * POST /bot{token}/sendMessage after {@code latencyMs}; a share of requests
+ * ({@code throttleRate}, 0 … 1) gets HTTP 429 with retry_after = 1.
+ * Point TelegramNotifier at {@link #url()} (telegram.apiUrl).
+ *
+ * Standalone: java -cp out:lib/* loadtest.FakeTelegramServer [port] [latencyMs] [throttleRate]
+ */
+public final class FakeTelegramServer {
+
+    private final HttpServer server;
+    private final long latencyMs;
+    private final double throttleRate;
+
+    private final LongAdder requests  = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder lines     = new LongAdder();
+
+    public FakeTelegramServer(int port, long latencyMs, double throttleRate) throws IOException {
+        this.latencyMs = latencyMs;
+        this.throttleRate = throttleRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 64);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "fake-telegram");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    public void start() { server.start(); }
+    public void stop()  { server.stop(0); }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long requests()  { return requests.sum(); }
+    public long throttled() { return throttled.sum(); }
+
+    /** Message lines received (a coalesced message counts every line) */
+    public long lines()     { return lines.sum(); }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            requests.increment();
+            String form;
+            try (InputStream in = ex.getRequestBody()) {
+                form = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            if (latencyMs > 0) {
+                try { Thread.sleep(latencyMs); } catch (InterruptedException e) { return; }
+            }
+
+            int status = 200;
+            String body;
+            if (!ex.getRequestURI().getPath().endsWith("/sendMessage")) {
+                status = 404;
+                body = "{\"ok\":false,\"error_code\":404,\"description\":\"Not Found\"}";
+            } else if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+                throttled.increment();
+                status = 429;
+                body = "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after 1\","
+                        + "\"parameters\":{\"retry_after\":1}}";
+            } else {
+                int n = 1;
+                for (int i = form.indexOf("%0A"); i >= 0; i = form.indexOf("%0A", i + 3)) n++;
+                lines.add(n);
+                body = "{\"ok\":true,\"result\":{\"message_id\":" + requests.sum() + "}}";
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port      = args.length > 0 ? Integer.parseInt(args[0]) : 18081;
+        long lat      = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        double rate   = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        FakeTelegramServer s = new FakeTelegramServer(port, lat, rate);
+        s.start();
+        System.out.printf("Fake Telegram: %s (latency %d ms, 429 rate %.3f)%n", s.url(), lat, rate);
+    }
+}
@@ -0,0 +1,216 @@
+package loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FakeZabbixServer
+ * ----------------
+ * Local stand-in for the Zabbix JSON-RPC API, enough for load tests:
+ *   • item.get    – filter.host + filter.key_ (string or list) or search.key_,
+ *                   or itemids; returns itemid, key_, value_type, lastvalue, lastclock, hosts.
+ *   • history.get – one value per requested itemid (history 0 only).
+ * The item universe is {@code hosts × keysPerHost} items named host{h} / key{k},
+ * itemid = {@value #FIRST_ITEM_ID} + h * keysPerHost + k. Values are a
+ * deterministic function of itemid and the current minute (0 … 99.9), so
+ * roughly 1 % of items sit above 99 at any time.
+ *
+ * Every request waits {@code latencyMs} and fails with a JSON-RPC error at
+ * {@code errorRate} (0 … 1).
+ *
+ * Standalone: java -cp out:lib/* loadtest.FakeZabbixServer [port] [hosts] [keysPerHost] [latencyMs] [errorRate]
+ */
+public final class FakeZabbixServer {
+
+    public static final long FIRST_ITEM_ID = 100_000;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final int hosts;
+    private final int keysPerHost;
+    private final long latencyMs;
+    private final double errorRate;
+
+    private final LongAdder requests      = new LongAdder();
+    private final LongAdder errors        = new LongAdder();
+    private final LongAdder historyValues = new LongAdder();
+
+    public FakeZabbixServer(int port, int hosts, int keysPerHost, long latencyMs, double errorRate, int threads)
+            throws IOException {
+        this.hosts = hosts;
+        this.keysPerHost = keysPerHost;
+        this.latencyMs = latencyMs;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "fake-zabbix");
+            t.setDaemon(true);
+            return t;
+        });
+        server.createContext("/api_jsonrpc.php", this::handle);
+        server.setExecutor(workers);
+    }
+
+    public static String host(int h) { return "host" + h; }
+    public static String key(int k)  { return "key" + k; }
+
+    public void start() { server.start(); }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api_jsonrpc.php";
+    }
+
+    public long requests()      { return requests.sum(); }
+    public long errors()        { return errors.sum(); }
+    public long historyValues() { return historyValues.sum(); }
+
+    /* ---------------- handler ---------------- */
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            requests.increment();
+            JsonNode req;
+            try (InputStream in = ex.getRequestBody()) {
+                req = mapper.readTree(in);
+            }
+            if (latencyMs > 0) {
+                try { Thread.sleep(latencyMs); } catch (InterruptedException e) { return; }
+            }
+
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"jsonrpc\":\"2.0\",");
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.increment();
+                sb.append("\"error\":{\"code\":-32500,\"message\":\"Application error.\",")
+                  .append("\"data\":\"Simulated failure.\"},");
+            } else {
+                sb.append("\"result\":[");
+                String method = req.path("method").asText();
+                JsonNode params = req.path("params");
+                if ("item.get".equals(method)) itemGet(params, sb);
+                else if ("history.get".equals(method)) historyGet(params, sb);
+                sb.append("],");
+            }
+            sb.append("\"id\":").append(req.path("id").asLong()).append('}');
+
+            byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private void itemGet(JsonNode params, StringBuilder sb) {
+        if (params.has("itemids")) {
+            itemsById(params.path("itemids"), sb);
+            return;
+        }
+        int h = index(params.path("filter").path("host").asText(), "host", hosts);
+        if (h < 0) return;
+        JsonNode keys = params.path("filter").path("key_");
+        if (keys.isMissingNode()) keys = params.path("search").path("key_");
+        boolean first = true;
+        long now = System.currentTimeMillis() / 1000;
+        for (JsonNode k : keys.isArray() ? keys : mapper.createArrayNode().add(keys)) {
+            int ki = index(k.asText(), "key", keysPerHost);
+            if (ki < 0) continue;
+            long id = FIRST_ITEM_ID + (long) h * keysPerHost + ki;
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"itemid\":\"").append(id)
+              .append("\",\"key_\":\"").append(key(ki))
+              .append("\",\"value_type\":\"0\",\"lastvalue\":\"").append(value(id, now))
+              .append("\",\"lastclock\":\"").append(now)
+              .append("\",\"hosts\":[{\"host\":\"").append(host(h)).append("\"}]}");
+        }
+    }
+
+    private void itemsById(JsonNode ids, StringBuilder sb) {
+        long last = FIRST_ITEM_ID + (long) hosts * keysPerHost;
+        long now = System.currentTimeMillis() / 1000;
+        boolean first = true;
+        for (JsonNode idNode : ids) {
+            long id = idNode.asLong();
+            if (id < FIRST_ITEM_ID || id >= last) continue;
+            int h = (int) ((id - FIRST_ITEM_ID) / keysPerHost), ki = (int) ((id - FIRST_ITEM_ID) % keysPerHost);
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"itemid\":\"").append(id)
+              .append("\",\"key_\":\"").append(key(ki))
+              .append("\",\"value_type\":\"0\",\"lastvalue\":\"").append(value(id, now))
+              .append("\",\"lastclock\":\"").append(now - 5)
+              .append("\",\"hosts\":[{\"host\":\"").append(host(h)).append("\"}]}");
+        }
+    }
+
+    private void historyGet(JsonNode params, StringBuilder sb) {
+        if (params.path("history").asInt(0) != 0) return;
+        long last = FIRST_ITEM_ID + (long) hosts * keysPerHost;
+        long now = System.currentTimeMillis() / 1000;
+        boolean first = true;
+        int n = 0;
+        for (JsonNode idNode : params.path("itemids")) {
+            long id = idNode.asLong();
+            if (id < FIRST_ITEM_ID || id >= last) continue;
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"itemid\":\"").append(id)
+              .append("\",\"clock\":\"").append(now - 5)
+              .append("\",\"value\":\"").append(value(id, now))
+              .append("\",\"ns\":\"0\"}");
+            n++;
+        }
+        historyValues.add(n);
+    }
+
+    /** Deterministic per item and minute, 0 … 99.9 */
+    private static double value(long itemId, long nowSec) {
+        long x = (itemId * 0x9E3779B97F4A7C15L) ^ (nowSec / 60) * 0xC2B2AE3D27D4EB4FL;
+        x ^= x >>> 29;
+        return Math.floorMod(x, 1000) / 10.0;
+    }
+
+    /** "host17" → 17 (within [0, limit)), else -1 */
+    private static int index(String name, String prefix, int limit) {
+        if (!name.startsWith(prefix)) return -1;
+        try {
+            int i = Integer.parseInt(name.substring(prefix.length()));
+            return i >= 0 && i < limit ? i : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port    = args.length > 0 ? Integer.parseInt(args[0]) : 18080;
+        int hosts   = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int keys    = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        long lat    = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        double err  = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        FakeZabbixServer s = new FakeZabbixServer(port, hosts, keys, lat, err, 32);
+        s.start();
+        System.out.printf("Fake Zabbix: %s (%d items, latency %d ms, error rate %.3f)%n",
+                s.url(), (long) hosts * keys, lat, err);
+    }
+}
@@ -0,0 +1,199 @@
+package loadtest;
+
+import alerter.AlertManager;
+import alerter.MetricPoller;
+import config.Metric;
+import stats.Histogram;
+import stats.Registry;
+import telegram.TelegramNotifier;
+import zabbix.ItemResolver;
+import zabbix.LastValueSource;
+import zabbix.MetricSource;
+import zabbix.ZabbixClient;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LoadTest
+ * --------
+ * End-to-end cycle on one box: FakeZabbixServer + FakeTelegramServer in this
+ * JVM, the real ZabbixClient / ItemResolver / MetricPoller / TelegramNotifier
+ * against them. After one warm-up period it measures a window and reports
+ * cycle time (per wheel tick), evaluation throughput, Zabbix RTT and the
+ * allocation rate of the alerter's own threads (fake servers excluded).
+ *
+ * Run: java -cp out:lib/* loadtest.LoadTest metrics=100000 pollSec=10 durationSec=60 ...
+ * Options (key=value, defaults in brackets):
+ *   metrics [10000]  keysPerHost [100]  pollSec [10]  durationSec [60]
+ *   latencyMs [2]  errorRate [0]  tgLatencyMs [20]  tgThrottleRate [0]
+ *   mode [fixed]  poolSize [8]  maxConcurrency [poolSize]  maxInFlight [16]
+ *   source [history]  (history = history.get, lastvalue = item.get lastvalue)
+ * The alerter's console output is discarded; only the report is printed.
+ */
+public class LoadTest {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq > 0) opt.put(a.substring(0, eq).trim(), a.substring(eq + 1).trim());
+        }
+        int    metrics     = intOpt(opt, "metrics", 10_000);
+        int    keysPerHost = intOpt(opt, "keysPerHost", 100);
+        int    pollSec     = intOpt(opt, "pollSec", 10);
+        int    durationSec = intOpt(opt, "durationSec", 60);
+        int    poolSize    = intOpt(opt, "poolSize", 8);
+        int    maxConc     = intOpt(opt, "maxConcurrency", poolSize);
+        int    maxInFlight = intOpt(opt, "maxInFlight", 16);
+        long   latencyMs   = intOpt(opt, "latencyMs", 2);
+        long   tgLatencyMs = intOpt(opt, "tgLatencyMs", 20);
+        double errorRate   = Double.parseDouble(opt.getOrDefault("errorRate", "0"));
+        double tgThrottle  = Double.parseDouble(opt.getOrDefault("tgThrottleRate", "0"));
+        MetricPoller.ExecutionMode mode =
+                MetricPoller.ExecutionMode.valueOf(opt.getOrDefault("mode", "fixed").toUpperCase());
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        /* ---- fakes ---- */
+        int hosts = (metrics + keysPerHost - 1) / keysPerHost;
+        FakeZabbixServer zbxFake = new FakeZabbixServer(0, hosts, keysPerHost, latencyMs, errorRate, 64);
+        FakeTelegramServer tgFake = new FakeTelegramServer(0, tgLatencyMs, tgThrottle);
+        zbxFake.start();
+        tgFake.start();
+
+        /* ---- alerter ---- */
+        List<Metric> list = new ArrayList<>(metrics);
+        for (int i = 0; i < metrics; i++) {
+            Metric m = new Metric();
+            m.setHost(FakeZabbixServer.host(i / keysPerHost));
+            m.setKey(FakeZabbixServer.key(i % keysPerHost));
+            m.setThresholdHigh(99);
+            m.setThresholdLow(90);
+            list.add(m);
+        }
+        AlertManager.register(list);
+
+        ZabbixClient client = new ZabbixClient(zbxFake.url(), "loadtest",
+                ZabbixClient.DEFAULT_CONNECT_TIMEOUT_MS, ZabbixClient.DEFAULT_REQUEST_TIMEOUT_MS, maxInFlight);
+        client.setHealthListener(AlertManager::setZabbixReachable);
+        Path cache = Files.createTempFile("loadtest-itemcache", ".tsv");
+        Files.delete(cache);
+        ItemResolver resolver = new ItemResolver(client, cache);
+        long t0 = System.nanoTime();
+        resolver.start(list).join();
+        long resolveMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        Files.deleteIfExists(cache);
+
+        TelegramNotifier tg = new TelegramNotifier("loadtest", "1", 10_000, tgFake.url());
+        MetricSource source = "lastvalue".equals(opt.get("source")) ? new LastValueSource(client) : client;
+        MetricPoller poller = new MetricPoller(list, source, tg, mode, poolSize, maxConc, pollSec, 60);
+        poller.start();
+
+        report.printf("Load test: %d metrics (%d hosts x %d keys), poll %d s, %s pool %d / max %d, in-flight %d, source %s%n",
+                metrics, hosts, keysPerHost, pollSec, mode, poolSize, maxConc, maxInFlight,
+                source == client ? "history" : "lastvalue");
+        report.printf("Fake Zabbix latency %d ms, error rate %.3f; fake Telegram latency %d ms%n",
+                latencyMs, errorRate, tgLatencyMs);
+        report.printf("Resolution: %d ms%n", resolveMs);
+
+        /* ---- warm-up, then the measured window ---- */
+        Thread.sleep(TimeUnit.SECONDS.toMillis(pollSec + 2));
+
+        Histogram cycle   = instrument("zabbix_alerter_cycle_duration_seconds", "");
+        Histogram history = instrument("zabbix_alerter_zabbix_request_seconds", "method=\"history.get\"");
+        LongAdder evaluated = Registry.counter("zabbix_alerter_evaluations_total", "", "");
+        LongAdder timedOut  = Registry.counter("zabbix_alerter_cycles_total", "", "state=\"timed_out\"");
+        LongAdder[] dropped = {
+                Registry.counter("zabbix_alerter_dropped_polls_total", "", "reason=\"overlap\""),
+                Registry.counter("zabbix_alerter_dropped_polls_total", "", "reason=\"queue_full\""),
+                Registry.counter("zabbix_alerter_dropped_polls_total", "", "reason=\"deadline\"") };
+
+        Histogram.Snapshot cycle0 = cycle.snapshot(), history0 = history.snapshot();
+        long eval0 = evaluated.sum(), timedOut0 = timedOut.sum();
+        long[] dropped0 = { dropped[0].sum(), dropped[1].sum(), dropped[2].sum() };
+        long alloc0 = allocatedBytes();
+        long[] gc0 = gc();
+        long zbxErr0 = zbxFake.errors(), tgLines0 = tgFake.lines();
+        long w0 = System.nanoTime();
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSec));
+
+        double sec = (System.nanoTime() - w0) / 1e9;
+        Histogram.Snapshot cycles = cycle.snapshot().minus(cycle0);
+        Histogram.Snapshot rtt = history.snapshot().minus(history0);
+        long evals = evaluated.sum() - eval0;
+        long alloc = allocatedBytes() - alloc0;
+        long[] gc1 = gc();
+
+        report.printf("%nWindow: %.1f s%n", sec);
+        report.printf("Cycles (wheel ticks): %d, mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                cycles.count(), cycles.mean() * 1e3, cycles.quantile(0.5) * 1e3,
+                cycles.quantile(0.99) * 1e3, cycles.quantile(1) * 1e3);
+        report.printf("Evaluations: %d (%.0f /s, expected %.0f /s)%n",
+                evals, evals / sec, (double) metrics / pollSec);
+        report.printf("Cycles timed out: %d; polls dropped: overlap %d, queue full %d, deadline %d%n",
+                timedOut.sum() - timedOut0, dropped[0].sum() - dropped0[0],
+                dropped[1].sum() - dropped0[1], dropped[2].sum() - dropped0[2]);
+        report.printf("history.get: %d requests, mean %.2f ms, p99 %.2f ms, fake errors %d%n",
+                rtt.count(), rtt.mean() * 1e3, rtt.quantile(0.99) * 1e3, zbxFake.errors() - zbxErr0);
+        report.printf("Allocation (alerter threads): %.1f MB/s, %.0f bytes/evaluation%n",
+                alloc / sec / (1 << 20), evals > 0 ? (double) alloc / evals : 0);
+        report.printf("GC: %d collections, %d ms%n", gc1[0] - gc0[0], gc1[1] - gc0[1]);
+        report.printf("Zabbix concurrency limit: %d, circuit %s%n",
+                client.getConcurrencyLimit(), client.isCircuitOpen() ? "open" : "closed");
+        report.printf("Alerts active: %d, Telegram lines delivered: %d, queued: %d%n",
+                AlertManager.activeCount(), tgFake.lines() - tgLines0, tg.getQueueDepth());
+
+        zbxFake.stop();
+        tgFake.stop();
+        System.exit(0);
+    }
+
+    /** Returns the instrument registered by the alerter under this name + labels. */
+    private static Histogram instrument(String name, String labels) {
+        return Registry.histogram(name, "", labels);
+    }
+
+    /** Bytes allocated so far by all live threads except the in-process fakes */
+    private static long allocatedBytes() {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = THREADS.getThreadInfo(ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] == null || bytes[i] < 0) continue;
+            String name = infos[i].getThreadName();
+            if (name.startsWith("fake-") || name.startsWith("HTTP-Dispatcher")) continue;
+            total += bytes[i];
+        }
+        return total;
+    }
+
+    /** { collections, collection time ms } over all collectors */
+    private static long[] gc() {
+        long n = 0, ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { n, ms };
+    }
+
+    private static int intOpt(Map<String, String> opt, String key, int def) {
+        String v = opt.get(key);
+        return v == null ? def : Integer.parseInt(v);
+    }
+}
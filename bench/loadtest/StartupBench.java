@@ -0,0 +1,248 @@
+package loadtest;
+
+import alerter.AlertManager;
+import alerter.MetricPoller;
+import config.ConfigLoader;
+import config.Metric;
+import config.MetricsConfig;
+import telegram.TelegramNotifier;
+import zabbix.ItemResolver;
+import zabbix.ZabbixClient;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * StartupBench
+ * ------------
+ * Time to first evaluation: every run is a fresh JVM that goes through the
+ * alerter's startup (config load, item cache / resolution, poller start)
+ * against a FakeZabbixServer in this JVM and reports, as JVM uptime, when
+ * the config was loaded, when polling started and when the first metric was
+ * evaluated. Scenarios:
+ *   • Jackson vs StAX config loader;
+ *   • cold item cache: resolve everything before polling (the former
+ *     startup) vs polling at once while misses resolve in the background;
+ *   • warm item cache, with and without an AppCDS archive (dynamic archive
+ *     from one training run; the classes are packed into a temporary JAR,
+ *     since CDS only archives classes loaded from JARs).
+ *
+ * Run: java -cp out:lib/* loadtest.StartupBench metrics=20000 runs=5
+ * Options (key=value, defaults in brackets):
+ *   metrics [20000]  keysPerHost [100]  runs [5]  latencyMs [2]  cds [true]
+ * Medians over the runs are printed.
+ */
+public class StartupBench {
+
+    private static final String RESULT = "STARTUP ";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq > 0) opt.put(a.substring(0, eq).trim(), a.substring(eq + 1).trim());
+        }
+        if (opt.containsKey("child")) {
+            child(opt);
+            return;
+        }
+        int  metrics     = intOpt(opt, "metrics", 20_000);
+        int  keysPerHost = intOpt(opt, "keysPerHost", 100);
+        int  runs        = intOpt(opt, "runs", 5);
+        long latencyMs   = intOpt(opt, "latencyMs", 2);
+        boolean cds      = Boolean.parseBoolean(opt.getOrDefault("cds", "true"));
+
+        int hosts = (metrics + keysPerHost - 1) / keysPerHost;
+        FakeZabbixServer zbxFake = new FakeZabbixServer(0, hosts, keysPerHost, latencyMs, 0, 32);
+        zbxFake.start();
+
+        Path dir = Files.createTempDirectory("startupbench");
+        Path config = dir.resolve("metricsettings.xml");
+        writeConfig(config, metrics, keysPerHost);
+        Path warmCache = dir.resolve("itemcache.tsv");
+        warmCache(zbxFake.url(), config, warmCache);
+        String classPath = packClassPath(dir.resolve("alerter.jar"));
+
+        System.out.printf("Startup bench: %d metrics (%d hosts x %d keys), %d run(s) per scenario, Zabbix latency %d ms%n",
+                metrics, hosts, keysPerHost, runs, latencyMs);
+        System.out.printf("%-44s %10s %10s %12s%n", "scenario (ms after JVM start, median)", "config", "polling", "first eval");
+
+        List<String> child = List.of("child=true", "url=" + zbxFake.url(), "config=" + config);
+        scenario("Jackson, cold cache, resolve before polling", classPath, List.of(), child,
+                List.of("parser=jackson", "resolve=wait"), dir, null, runs);
+        scenario("StAX, cold cache, resolve in background", classPath, List.of(), child,
+                List.of("parser=stax", "resolve=background"), dir, null, runs);
+        scenario("Jackson, warm cache", classPath, List.of(), child,
+                List.of("parser=jackson", "resolve=background"), dir, warmCache, runs);
+        scenario("StAX, warm cache", classPath, List.of(), child,
+                List.of("parser=stax", "resolve=background"), dir, warmCache, runs);
+        if (cds) {
+            Path jsa = dir.resolve("alerter.jsa");
+            run(classPath, List.of("-XX:ArchiveClassesAtExit=" + jsa), child,
+                    List.of("parser=stax", "resolve=background"), dir, warmCache);
+            scenario("StAX, warm cache, AppCDS", classPath, List.of("-XX:SharedArchiveFile=" + jsa), child,
+                    List.of("parser=stax", "resolve=background"), dir, warmCache, runs);
+        }
+
+        zbxFake.stop();
+        System.exit(0);
+    }
+
+    /* ---------------- parent ---------------- */
+
+    private static void scenario(String name, String classPath, List<String> jvm, List<String> child,
+                                 List<String> opts, Path dir, Path cache, int runs) throws Exception {
+        long[][] r = new long[3][runs];
+        for (int i = 0; i < runs; i++) {
+            long[] t = run(classPath, jvm, child, opts, dir, cache);
+            for (int k = 0; k < 3; k++) r[k][i] = t[k];
+        }
+        System.out.printf("%-44s %10d %10d %12d%n", name, median(r[0]), median(r[1]), median(r[2]));
+    }
+
+    /** One child JVM; a cold run gets a fresh cache path, a warm one a copy of the warm cache */
+    private static long[] run(String classPath, List<String> jvm, List<String> child, List<String> opts,
+                              Path dir, Path warmCache) throws Exception {
+        Path cache = Files.createTempFile(dir, "itemcache", ".tsv");
+        if (warmCache != null) Files.copy(warmCache, cache, StandardCopyOption.REPLACE_EXISTING);
+        else Files.delete(cache);
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(jvm);
+        cmd.add("-cp");
+        cmd.add(classPath);
+        cmd.add(StartupBench.class.getName());
+        cmd.addAll(child);
+        cmd.addAll(opts);
+        cmd.add("cache=" + cache);
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        long[] result = null;
+        StringBuilder out = new StringBuilder();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    String[] f = line.substring(RESULT.length()).split(" ");
+                    result = new long[] { Long.parseLong(f[0]), Long.parseLong(f[1]), Long.parseLong(f[2]) };
+                } else {
+                    out.append(line).append('\n');
+                }
+            }
+        }
+        p.waitFor();
+        Files.deleteIfExists(cache);
+        if (result == null) throw new IllegalStateException("child run failed:\n" + out);
+        return result;
+    }
+
+    private static void writeConfig(Path file, int metrics, int keysPerHost) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metrics>\n");
+            for (int i = 0; i < metrics; i++) {
+                w.write("  <metric>\n    <host>" + FakeZabbixServer.host(i / keysPerHost) + "</host>\n"
+                        + "    <key>" + FakeZabbixServer.key(i % keysPerHost) + "</key>\n"
+                        + "    <thresholdHigh>99</thresholdHigh>\n    <thresholdLow>90</thresholdLow>\n"
+                        + "    <pollInterval>10</pollInterval>\n  </metric>\n");
+            }
+            w.write("</metrics>\n");
+        }
+    }
+
+    /** Resolves every metric once and leaves the item cache file behind */
+    private static void warmCache(String url, Path config, Path cache) throws IOException {
+        MetricsConfig cfg = ConfigLoader.load(config);
+        ZabbixClient client = new ZabbixClient(url, "bench",
+                ZabbixClient.DEFAULT_CONNECT_TIMEOUT_MS, ZabbixClient.DEFAULT_REQUEST_TIMEOUT_MS, 16);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            new ItemResolver(client, cache).start(cfg.getMetricList()).join();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /** Directories of the class path go into one JAR; JARs stay as they are */
+    private static String packClassPath(Path jar) throws IOException {
+        List<String> parts = new ArrayList<>();
+        List<Path> dirs = new ArrayList<>();
+        for (String e : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (Files.isDirectory(Paths.get(e))) dirs.add(Paths.get(e));
+            else parts.add(e);
+        }
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            Set<String> seen = new HashSet<>();
+            for (Path d : dirs) {
+                List<Path> files;
+                try (java.util.stream.Stream<Path> s = Files.walk(d)) {
+                    files = s.filter(Files::isRegularFile).sorted().toList();
+                }
+                for (Path f : files) {
+                    String name = d.relativize(f).toString().replace(File.separatorChar, '/');
+                    if (!seen.add(name)) continue;
+                    out.putNextEntry(new JarEntry(name));
+                    Files.copy(f, out);
+                    out.closeEntry();
+                }
+            }
+        }
+        parts.add(0, jar.toString());
+        return String.join(File.pathSeparator, parts);
+    }
+
+    /* ---------------- child: the alerter's startup path ---------------- */
+
+    private static void child(Map<String, String> opt) throws Exception {
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Path config = Paths.get(opt.get("config"));
+        MetricsConfig cfg = "jackson".equals(opt.get("parser"))
+                ? ConfigLoader.loadWithJackson(config)
+                : ConfigLoader.load(config);
+        long configMs = uptime();
+
+        AlertManager.register(cfg.getMetricList());
+        ZabbixClient client = new ZabbixClient(opt.get("url"), "bench",
+                ZabbixClient.DEFAULT_CONNECT_TIMEOUT_MS, ZabbixClient.DEFAULT_REQUEST_TIMEOUT_MS,
+                ZabbixClient.DEFAULT_MAX_IN_FLIGHT);
+        CompletableFuture<Void> resolved = new ItemResolver(client, Paths.get(opt.get("cache")))
+                .start(cfg.getMetricList());
+        if ("wait".equals(opt.get("resolve"))) resolved.join();
+
+        TelegramNotifier tg = new TelegramNotifier("bench", "1");
+        tg.setDryRun(true);
+        MetricPoller poller = new MetricPoller(cfg.getMetricList(), client, tg,
+                MetricPoller.ExecutionMode.FIXED, 8, 8, 60, 60);
+        poller.start();
+        long pollingMs = uptime();
+
+        poller.firstEvaluation().get(5, TimeUnit.MINUTES);
+        report.println(RESULT + configMs + " " + pollingMs + " " + uptime());
+        report.flush();
+        System.exit(0);
+    }
+
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    private static long median(long[] v) {
+        long[] s = v.clone();
+        Arrays.sort(s);
+        return s[s.length / 2];
+    }
+
+    private static int intOpt(Map<String, String> opt, String key, int def) {
+        String v = opt.get(key);
+        return v == null ? def : Integer.parseInt(v);
+    }
+}
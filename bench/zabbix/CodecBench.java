@@ -0,0 +1,145 @@
+package zabbix;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import com.fasterxml.jackson.databind.*;
+
+/**
+ * CodecBench
+ * ----------
+ * Allocation / throughput microbenchmark for Zabbix JSON-RPC handling:
+ *   before = ObjectMapper tree (String body, readTree, asText().replace, parseDouble)
+ *   after  = streaming JsonRpcCodec
+ *
+ * Run: java -cp out:lib/* zabbix.CodecBench [records] [rounds]
+ * Allocation is measured per thread with com.sun.management.ThreadMXBean.
+ */
+public class CodecBench {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static double sink;            // defeats dead-code elimination
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int rounds  = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        byte[] response = historyResponse(records);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 500; i++) ids.add(100_000L + i);
+        JsonRpcCodec codec = new JsonRpcCodec("0123456789abcdef0123456789abcdef");
+
+        System.out.printf("history.get response: %d records, %d KB%n", records, response.length / 1024);
+        System.out.printf("%-28s %14s %14s %12s%n", "case", "bytes/record", "ns/record", "MB/s");
+
+        run("parse: tree (before)", rounds, records, response.length, () -> parseTree(response));
+        run("parse: codec (after)", rounds, records, response.length, () -> parseCodec(response));
+
+        int requests = 2_000;
+        System.out.printf("%nhistory.get request, 500 itemids, %d requests per round%n", requests);
+        System.out.printf("%-28s %14s %14s%n", "case", "bytes/request", "ns/request");
+        run("encode: HashMap+UUID (before)", rounds, requests, 0, () -> {
+            for (int i = 0; i < requests; i++) sink += encodeMap(ids).length;
+        });
+        run("encode: codec (after)", rounds, requests, 0, () -> {
+            for (int i = 0; i < requests; i++) sink += encodeCodec(codec, ids).length;
+        });
+        if (sink == 42) System.out.println();
+    }
+
+    /* ---------------- cases ---------------- */
+
+    private static void parseTree(byte[] body) throws IOException {
+        String response = new String(body, StandardCharsets.UTF_8);
+        JsonNode resp = mapper.readTree(response);
+        for (JsonNode rec : resp.get("result")) {
+            long itemId = rec.get("itemid").asLong();
+            long clock  = rec.get("clock").asLong();
+            double value = Double.parseDouble(rec.get("value").asText().replace(",", "."));
+            sink += itemId + clock + value;
+        }
+    }
+
+    private static void parseCodec(byte[] body) throws IOException {
+        JsonRpcCodec.readHistory(new ByteArrayInputStream(body),
+                (itemId, clock, value) -> sink += itemId + clock + value);
+    }
+
+    private static byte[] encodeMap(List<Long> ids) throws IOException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("output", new String[] { "itemid", "clock", "value" });
+        params.put("history", 0);
+        params.put("itemids", ids);
+        params.put("time_from", 1_700_000_000L);
+        params.put("sortfield", "clock");
+        params.put("sortorder", "DESC");
+
+        Map<String, Object> request = new HashMap<>();
+        request.put("jsonrpc", "2.0");
+        request.put("method", "history.get");
+        request.put("params", params);
+        request.put("auth", "0123456789abcdef0123456789abcdef");
+        request.put("id", UUID.randomUUID().toString());
+        return mapper.writeValueAsString(request).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeCodec(JsonRpcCodec codec, List<Long> ids) throws IOException {
+        return codec.encode("history.get", g -> {
+            g.writeStartObject();
+            g.writeArrayFieldStart("output");
+            g.writeString("itemid"); g.writeString("clock"); g.writeString("value");
+            g.writeEndArray();
+            g.writeNumberField("history", 0);
+            g.writeArrayFieldStart("itemids");
+            for (Long id : ids) g.writeNumber(id);
+            g.writeEndArray();
+            g.writeNumberField("time_from", 1_700_000_000L);
+            g.writeStringField("sortfield", "clock");
+            g.writeStringField("sortorder", "DESC");
+            g.writeEndObject();
+        });
+    }
+
+    /* ---------------- harness ---------------- */
+
+    private interface Body { void run() throws Exception; }
+
+    private static void run(String name, int rounds, int perRound, int bytes, Body body) throws Exception {
+        for (int i = 0; i < Math.max(3, rounds / 2); i++) body.run();          // warm-up
+
+        long tid = Thread.currentThread().getId();
+        long alloc0 = THREADS.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) body.run();
+        long ns = System.nanoTime() - t0;
+        long alloc = THREADS.getThreadAllocatedBytes(tid) - alloc0;
+
+        double ops = (double) rounds * perRound;
+        if (bytes > 0) {
+            System.out.printf("%-28s %14.1f %14.1f %12.1f%n", name, alloc / ops, ns / ops,
+                    (double) bytes * rounds / (1 << 20) / (ns / 1e9));
+        } else {
+            System.out.printf("%-28s %14.1f %14.1f%n", name, alloc / ops, ns / ops);
+        }
+    }
+
+    /** Synthetic history.get response in Zabbix format (all fields as strings). */
+    private static byte[] historyResponse(int records) {
+        StringBuilder sb = new StringBuilder(records * 80);
+        sb.append("{\"jsonrpc\":\"2.0\",\"result\":[");
+        Random rnd = new Random(1);
+        for (int i = 0; i < records; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"itemid\":\"").append(100_000 + rnd.nextInt(5_000))
+              .append("\",\"clock\":\"").append(1_700_000_000 + i)
+              .append("\",\"value\":\"").append(String.format(Locale.ROOT, "%.4f", rnd.nextDouble() * 100))
+              .append("\",\"ns\":\"").append(rnd.nextInt(1_000_000_000)).append("\"}");
+        }
+        sb.append("],\"id\":1}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
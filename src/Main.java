@@ -1,18 +1,43 @@
 import config.*;
+import zabbix.ItemResolver;
+import zabbix.LastValueSource;
+import zabbix.MetricSource;
+import zabbix.ReplaySource;
 import zabbix.ZabbixClient;
+import alerter.AlertCorrelator;
+import alerter.AlertJournal;
+import alerter.AlertManager;
+import alerter.ConfigReloader;
 import alerter.MetricPoller;
+import alerter.PushServer;
+import alerter.ShardManager;
+import alerter.StatusLog;
+import stats.Registry;
+import stats.StatsServer;
 import telegram.TelegramNotifier;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Main entry point for ZabbixAlerter.
  * CLI arg0 (optional) = status-print interval in minutes.
+ * Further CLI args of the form key=value override {@link AppSettings}.
  */
 public class Main {
 
@@ -21,11 +46,15 @@ public class Main {
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm'Z'")
                     .withZone(ZoneOffset.UTC);
 
+    /** On-disk (host, key) → (itemId, value_type) cache, next to metricsettings.xml */
+    private static final String ITEM_CACHE = "itemcache.tsv";
+
     public static void main(String[] args) throws Exception {
 
         /* ---- 1. Parse CLI argument (status interval, min) ---- */
+        AppSettings.applyArgs(args);
         int statusInterval = 1;                         // default = 1 min
-        if (args.length > 0) {
+        if (args.length > 0 && !args[0].contains("=")) {
             try {
                 int v = Integer.parseInt(args[0]);
                 if (v > 0) statusInterval = v;
@@ -40,45 +69,166 @@ public class Main {
         String startMsg = String.format(
                 "ZabbixAlerter started  JAR:%s  CFG:%s", jarStamp, cfgStamp);
 
+        /* startup.exitAfterFirstEval: start, evaluate once, exit. AppCDS training run and
+           startup benchmark; Telegram is dry-run and alert state goes to state-startup. */
+        boolean exitAfterFirstEval = AppSettings.getBool("startup.exitAfterFirstEval", false);
+
         /* ---- 3. Load XML config & resolve itemIds ---- */
         MetricsConfig cfg = ConfigLoader.load();
-        ZabbixClient   zbx = new ZabbixClient(
-                Secrets.ZABBIX_URL(), Secrets.ZABBIX_API_TOKEN());
-
-        ExecutorService resolvePool = Executors.newFixedThreadPool(10);
-        for (Metric m : cfg.getMetricList()) {
-            resolvePool.submit(() -> {
-                try {
-                    Long id = zbx.resolveItemId(m.getHost(), m.getKey());
-                    m.setMetricId(id);
-                    System.out.printf("Host=%s Key=%s ⇒ itemId=%s%n",
-                            m.getHost(), m.getKey(), id != null ? id : "NOT FOUND");
-                } catch (Exception e) {
-                    System.err.printf("Resolve error %s %s: %s%n",
-                            m.getHost(), m.getKey(), e.getMessage());
-                }
-            });
-        }
-        resolvePool.shutdown();
-        resolvePool.awaitTermination(30, TimeUnit.SECONDS);
+        AlertManager.register(cfg.getMetricList());     // dense state slots
+        int maxInFlight = AppSettings.getInt("zabbix.maxInFlight", ZabbixClient.DEFAULT_MAX_IN_FLIGHT);
+        ZabbixClient   zbx = zabbixClient(Secrets.ZABBIX_URL(), Secrets.ZABBIX_API_TOKEN(), maxInFlight);
+        zbx.setHealthListener(AlertManager::setZabbixReachable);   // breaker drives ZABBIX DOWN
+
+        /* zabbix.source: history (history.get) | lastvalue (item.get) | replay (recorded file, offline) */
+        String source = AppSettings.get("zabbix.source", "history").trim().toLowerCase();
+        ReplaySource replay = source.equals("replay")
+                ? ReplaySource.load(Paths.get(AppSettings.get("replay.file", "replay.tsv.gz")),
+                                    AppSettings.getInt("replay.speed", 60))
+                : null;
+        if (replay != null)
+            replay.setHistoryWindowSec(AppSettings.getInt("zabbix.historyWindowSec", ZabbixClient.DEFAULT_HISTORY_WINDOW_SEC));
+
+        ItemResolver resolver = new ItemResolver(zbx, Paths.get(ITEM_CACHE));
+        Map<String, ItemResolver> resolvers = new LinkedHashMap<>();
+        if (replay == null) resolvers.put("", resolver);
+
+        /* ---- 3a. Further Zabbix servers: own client, item cache and health each ---- */
+        Map<String, ZabbixClient> servers = new LinkedHashMap<>();
+        Map<Long, String> tags = new HashMap<>();        // state key tag → server name
+        for (Server s : replay == null ? cfg.getServerList() : List.<Server>of()) {
+            String name = s.getName() != null ? s.getName().trim() : "";
+            if (name.isEmpty() || s.getUrl() == null || servers.containsKey(name)) {
+                System.err.printf("Server '%s' skipped: needs a unique name and a url%n", name);
+                continue;
+            }
+            String other = tags.putIfAbsent(Metric.serverTag(name), name);
+            if (other != null) {                        // 14-bit name hash: rare, but keys would mix
+                System.err.printf("Server '%s' skipped: its state key tag collides with '%s'; rename one%n",
+                        name, other);
+                continue;
+            }
+            ZabbixClient c = zabbixClient(s.getUrl(), s.resolveToken(),
+                    s.getMaxInFlight() != null ? s.getMaxInFlight() : maxInFlight);
+            c.setHealthListener(up -> AlertManager.setZabbixReachable(name, up));
+            servers.put(name, c);
+            resolvers.put(name, new ItemResolver(c,
+                    Paths.get("itemcache-" + name.replaceAll("[^A-Za-z0-9._-]", "_") + ".tsv")));
+        }
+        CompletableFuture<Void> resolved = CompletableFuture.completedFuture(null);
+        if (replay != null) {
+            System.out.printf("Replay: %d of %d metrics found in the recording%n",
+                    replay.bind(cfg.getMetricList()), cfg.getMetricList().size());
+        } else {
+            resolved = startResolvers(resolvers, cfg.getMetricList());
+        }
+        /* cache misses resolve in the background while polling starts; optionally wait a bit for them */
+        int resolveWaitSec = AppSettings.getInt("startup.resolveWaitSec", 0);
+        if (resolveWaitSec > 0) {
+            try {
+                resolved.get(resolveWaitSec, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                System.err.printf("Resolve: still running after %d s, continuing in background%n", resolveWaitSec);
+            }
+        }
+
+        /* replay.record=<file>: write replay.recordHours of history for the default server's metrics, then exit */
+        String recordTo = AppSettings.get("replay.record", "");
+        if (replay == null && !recordTo.isEmpty()) {
+            resolved.join();
+            long from = System.currentTimeMillis() / 1000 - 3600L * AppSettings.getInt("replay.recordHours", 24);
+            List<Metric> own = new ArrayList<>();
+            for (Metric m : cfg.getMetricList()) if (m.getServer().isEmpty()) own.add(m);
+            long points = ReplaySource.record(zbx, own, from, Paths.get(recordTo));
+            System.out.printf("Recorded %d point(s) to %s%n", points, recordTo);
+            System.exit(0);
+        }
+
+        /* ---- 3b. Sharded mode: shard.count nodes share the metrics (1 = off) ---- */
+        ShardManager shard = null;
+        int shardCount = AppSettings.getInt("shard.count", 1);
+        if (shardCount > 1 && replay == null && !exitAfterFirstEval) {
+            shard = new ShardManager(Paths.get(AppSettings.get("shard.dir", "shards")),
+                    AppSettings.getInt("shard.node", 0), shardCount,
+                    AppSettings.getInt("shard.leaseMs", ShardManager.DEFAULT_LEASE_MS));
+            shard.start();                              // fails if this node id is already running
+        }
+
+        /* ---- 3c. Restore alert state (snapshot + journal) ---- */
+        Map<Long, AlertManager.AlertType> recovered = new HashMap<>();
+        String stateDir = replay != null ? "state-replay" : shard != null ? "state-node" + shard.node() : "state";
+        AlertJournal journal = AlertJournal.open(
+                Paths.get(exitAfterFirstEval ? "state-startup" : AppSettings.get("state.dir", stateDir)),
+                AppSettings.getInt("state.journalBytes", AlertJournal.DEFAULT_CAPACITY),
+                TimeUnit.MINUTES.toMillis(AppSettings.getInt("state.compactMin", 10)),
+                recovered);
+        AlertManager.attachJournal(journal, recovered);
+        journal.start();
+        System.out.printf("Alert state: %d active alert(s) restored%n", recovered.size());
 
         /* ---- 4. Telegram notifier + send banner ---- */
         TelegramNotifier tg = new TelegramNotifier(
                 Secrets.TELEGRAM_BOT_TOKEN(),
-                Secrets.TELEGRAM_CHAT_ID());
+                Secrets.TELEGRAM_CHAT_ID(),
+                AppSettings.getInt("telegram.queueCapacity", TelegramNotifier.DEFAULT_QUEUE_CAPACITY),
+                AppSettings.get("telegram.apiUrl", TelegramNotifier.DEFAULT_API_URL));
+        tg.setRetryBudgetSec(AppSettings.getInt("telegram.retryBudgetSec", TelegramNotifier.DEFAULT_RETRY_BUDGET_SEC));
 
-        new Thread(() -> {
-            try { tg.sendMessage(startMsg); }
-            catch (Exception ex) { System.err.println("TG send error: "+ex.getMessage()); }
-        }).start();
+        if (replay != null) tg.setDryRun(!AppSettings.getBool("replay.telegram", false));
+        if (exitAfterFirstEval) tg.setDryRun(true);
+        tg.sendMessage(startMsg);                       // queued, delivered by the sender thread
 
         /* ---- 5. Start poller ---- */
+        int poolSize = AppSettings.getInt("poller.poolSize", 5);
         MetricPoller poller = new MetricPoller(
-                cfg.getMetricList(), zbx, tg,
-                5,          // threads
-                60,         // poll period (sec)
+                cfg.getMetricList(), metricSource(source, zbx, replay), tg,
+                executionMode(AppSettings.get("poller.mode", "fixed")),
+                poolSize,                                            // threads (FIXED)
+                AppSettings.getInt("poller.maxConcurrency", poolSize), // running tasks cap
+                AppSettings.getInt("poller.periodSec", 60),          // poll period (sec)
                 statusInterval);
+        servers.forEach((name, c) -> poller.addServer(name, metricSource(source, c, replay)));
+        if (replay != null) {                           // one recording serves every server's metrics
+            for (Server s : cfg.getServerList()) if (s.getName() != null) poller.addServer(s.getName().trim(), replay);
+            poller.setReplay(replay);
+        }
+        poller.setQueueCapacity(AppSettings.getInt("poller.queueCapacity", MetricPoller.DEFAULT_QUEUE_CAPACITY));
+        poller.setCycleTimeoutSec(AppSettings.getInt("poller.cycleTimeoutSec", 0));   // 0 = shortest interval
+        poller.setStatusLog(statusLog());
+        poller.setAlertCorrelator(new AlertCorrelator(tg,
+                AppSettings.getInt("alerts.stormThreshold", AlertCorrelator.DEFAULT_STORM_THRESHOLD),
+                AppSettings.getInt("alerts.digestMaxItems", AlertCorrelator.DEFAULT_MAX_LISTED)));
+        poller.replaceRules(cfg.getRuleList());
+        if (shard != null) poller.setShardManager(shard);
+        int pushPort = exitAfterFirstEval ? 0 : AppSettings.getInt("push.port", 0);   // 0 = polling only
+        if (pushPort > 0) poller.setPushSweepSec(AppSettings.getInt("push.sweepSec", 300));
         poller.start();
+        resolved.thenRun(poller::dropUnclaimedAlerts);   // recovered alerts of items no longer configured
+        poller.firstEvaluation().thenRun(() -> System.out.printf("Startup: first evaluation %d ms after JVM start%n",
+                ManagementFactory.getRuntimeMXBean().getUptime()));
+        if (exitAfterFirstEval) {
+            poller.firstEvaluation()
+                    .orTimeout(AppSettings.getInt("startup.exitTimeoutSec", 120), TimeUnit.SECONDS)
+                    .whenComplete((v, e) -> System.exit(e == null ? 0 : 1));
+        }
+
+        /* ---- 5b. Push endpoint: Zabbix sends values, polling becomes a sweep ---- */
+        if (pushPort > 0) {
+            new PushServer(AppSettings.get("push.bind", "127.0.0.1"), pushPort, poller,
+                    AppSettings.getInt("push.threads", 2),
+                    AppSettings.getInt("push.maxBodyBytes", PushServer.DEFAULT_MAX_BODY_BYTES)).start();
+        }
+
+        /* ---- 6. Hot reload of metricsettings.xml ---- */
+        ConfigReloader reloader = new ConfigReloader(poller, resolvers);
+        new ConfigWatcher(ConfigLoader.path(), reloader::apply).start();
+
+        /* ---- 7. Prometheus endpoint (metrics.port=0 disables it) ---- */
+        int metricsPort = exitAfterFirstEval ? 0 : AppSettings.getInt("metrics.port", 0);
+        if (metricsPort > 0) {
+            registerGauges(poller, zbx, servers, tg, shard);
+            new StatsServer(AppSettings.get("metrics.bind", "0.0.0.0"), metricsPort).start();
+        }
 
         /* ---- keep JVM alive ---- */
         Thread.currentThread().join();
@@ -86,6 +236,127 @@ public class Main {
 
     /* ----- helpers ----- */
 
+    /** Instruments sampled at scrape time; hot-path histograms and counters register themselves. */
+    private static void registerGauges(MetricPoller poller, ZabbixClient zbx,
+                                       Map<String, ZabbixClient> servers, TelegramNotifier tg,
+                                       ShardManager shard) {
+        Registry.gauge("zabbix_alerter_executor_queue_depth",
+                "Evaluation tasks waiting for a thread or concurrency permit", "", poller::getQueuedTasks);
+        Registry.gauge("zabbix_alerter_executor_active_threads",
+                "Evaluation tasks running", "", poller::getRunningTasks);
+        Registry.gauge("zabbix_alerter_zabbix_in_flight",
+                "Zabbix API requests awaiting a response", "", zbx::getInFlight);
+        Registry.gauge("zabbix_alerter_zabbix_queued",
+                "Zabbix API requests waiting for an in-flight permit", "", zbx::getQueued);
+        Registry.gauge("zabbix_alerter_zabbix_concurrency_limit",
+                "Adaptive limit of in-flight Zabbix API requests", "", zbx::getConcurrencyLimit);
+        Registry.gauge("zabbix_alerter_zabbix_circuit_open",
+                "1 while the Zabbix circuit breaker is open or probing", "", () -> zbx.isCircuitOpen() ? 1 : 0);
+        servers.forEach((name, c) -> {                  // further servers: same series, labelled
+            String label = "server=\"" + name + "\"";
+            Registry.gauge("zabbix_alerter_zabbix_in_flight",
+                    "Zabbix API requests awaiting a response", label, c::getInFlight);
+            Registry.gauge("zabbix_alerter_zabbix_concurrency_limit",
+                    "Adaptive limit of in-flight Zabbix API requests", label, c::getConcurrencyLimit);
+            Registry.gauge("zabbix_alerter_zabbix_circuit_open",
+                    "1 while the Zabbix circuit breaker is open or probing", label, () -> c.isCircuitOpen() ? 1 : 0);
+        });
+        Registry.gauge("zabbix_alerter_telegram_queue_depth",
+                "Telegram messages waiting to be sent", "", tg::getQueueDepth);
+        Registry.counter("zabbix_alerter_telegram_delivered_total",
+                "Telegram messages delivered", "", tg::getDelivered);
+        Registry.counter("zabbix_alerter_telegram_dropped_total",
+                "Telegram messages dropped (queue full or retries exhausted)", "", tg::getDropped);
+        Registry.gauge("zabbix_alerter_metrics",
+                "Metrics in the live configuration", "", () -> poller.getMetrics().size());
+        if (shard != null) {
+            Registry.gauge("zabbix_alerter_shard_owned_metrics",
+                    "Metrics in this node's shard partition", "", () -> shard.ownedCount(poller.getMetrics()));
+            Registry.gauge("zabbix_alerter_shard_live_nodes",
+                    "Shard nodes holding a valid lease", "", () -> Long.bitCount(shard.liveNodes()));
+        }
+        for (AlertManager.AlertType t : AlertManager.AlertType.values()) {
+            Registry.gauge("zabbix_alerter_active_alerts", "Active alerts by type",
+                    "type=\"" + t + "\"", () -> AlertManager.activeCount(t));
+        }
+    }
+
+    private static ZabbixClient zabbixClient(String url, String token, int maxInFlight) {
+        ZabbixClient c = new ZabbixClient(url, token,
+                AppSettings.getInt("zabbix.connectTimeoutMs", ZabbixClient.DEFAULT_CONNECT_TIMEOUT_MS),
+                AppSettings.getInt("zabbix.requestTimeoutMs", ZabbixClient.DEFAULT_REQUEST_TIMEOUT_MS),
+                maxInFlight);
+        c.setCircuitBreaker(
+                AppSettings.getInt("zabbix.breakerFailures",   ZabbixClient.DEFAULT_BREAKER_FAILURES),
+                AppSettings.getInt("zabbix.breakerCooldownMs", ZabbixClient.DEFAULT_BREAKER_COOLDOWN_MS));
+        c.setHistoryWindowSec(AppSettings.getInt("zabbix.historyWindowSec", ZabbixClient.DEFAULT_HISTORY_WINDOW_SEC));
+        return c;
+    }
+
+    private static MetricSource metricSource(String name, ZabbixClient client, ReplaySource replay) {
+        switch (name) {
+            case "replay":    return replay;
+            case "lastvalue": return new LastValueSource(client);
+            case "history":   return client;
+            default:
+                System.err.println("Invalid zabbix.source '" + name + "', using history.");
+                return client;
+        }
+    }
+
+    /**
+     * Applies every server's item cache to its metrics; the cache misses resolve
+     * in the background, in parallel per server.
+     * @return completes when every server's first resolution is done
+     */
+    private static CompletableFuture<Void> startResolvers(Map<String, ItemResolver> resolvers, List<Metric> metrics) {
+        List<CompletableFuture<Void>> starts = new ArrayList<>();
+        for (Map.Entry<String, ItemResolver> e : resolvers.entrySet()) {
+            List<Metric> own = new ArrayList<>();
+            for (Metric m : metrics) if (m.getServer().equals(e.getKey())) own.add(m);
+            starts.add(e.getValue().start(own));
+        }
+        for (Metric m : metrics) {
+            if (!resolvers.containsKey(m.getServer()))
+                System.err.printf("Metric %s %s: server '%s' is not configured%n", m.getHost(), m.getKey(), m.getServer());
+        }
+        return CompletableFuture.allOf(starts.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /** Status-line log: status.format=text|json, status.file (empty = stdout), status.overflow=drop|block */
+    private static StatusLog statusLog() throws IOException {
+        String file = AppSettings.get("status.file", "");
+        OutputStream out = file.isEmpty()
+                ? System.out
+                : StatusLog.rotatingFile(Paths.get(file),
+                        AppSettings.getLong("status.maxBytes", 50L << 20),
+                        AppSettings.getInt("status.keep", 5));
+        return new StatusLog(
+                enumSetting("status.format", StatusLog.Format.TEXT),
+                enumSetting("status.overflow", StatusLog.Overflow.DROP),
+                AppSettings.getInt("status.capacity", StatusLog.DEFAULT_CAPACITY),
+                out);
+    }
+
+    private static <E extends Enum<E>> E enumSetting(String name, E def) {
+        String v = AppSettings.get(name, def.name());
+        try {
+            return Enum.valueOf(def.getDeclaringClass(), v.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid " + name + "='" + v + "', using " + def.name().toLowerCase());
+            return def;
+        }
+    }
+
+    private static MetricPoller.ExecutionMode executionMode(String name) {
+        try {
+            return MetricPoller.ExecutionMode.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid poller.mode '" + name + "', using fixed.");
+            return MetricPoller.ExecutionMode.FIXED;
+        }
+    }
+
     /** Returns UTC build time of the running JAR, or "debug" when run from IDE. */
     private static String jarUtcStamp() {
         try {
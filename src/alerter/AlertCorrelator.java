@@ -0,0 +1,146 @@
+package alerter;
+
+import config.Metric;
+import telegram.TelegramNotifier;
+
+import java.util.*;
+
+/**
+ * AlertCorrelator
+ * ---------------
+ * Sits between the poller and Telegram: the alert transitions of one poll
+ * cycle are grouped by alert kind and host before anything is sent.
+ *   • a group of one keeps the classic per-item message ("OLD_VALUE: host key");
+ *   • a larger group becomes one digest per host listing its items
+ *     (at most maxListed, then "+N more");
+ *   • more than stormThreshold transitions in the cycle become one
+ *     ALERT STORM summary with counts per kind.
+ * Resolutions (CLEAR, Value resumed) are grouped the same way. Every
+ * transition is still written per item to the status log by the poller.
+ * Expression rule transitions join the cycle that evaluated them, as host "rule".
+ */
+public final class AlertCorrelator {
+
+    public static final int DEFAULT_STORM_THRESHOLD = 50;
+    public static final int DEFAULT_MAX_LISTED      = 10;
+
+    /** Transition kinds in message order; text is the per-item message prefix */
+    enum Kind {
+        ALERT_MAX("ALERT MAX"), ALERT_MIN("ALERT MIN"), OLD_VALUE("OLD_VALUE"),
+        CLEAR_MAX("CLEAR MAX"), CLEAR_MIN("CLEAR MIN"), RESUMED("Value resumed");
+
+        final String text;
+        Kind(String text) { this.text = text; }
+    }
+
+    /** One alert transition of a cycle */
+    static final class Transition {
+        final Kind kind;
+        final String host;
+        final String key;
+        final double value;
+
+        Transition(Kind kind, Metric metric, double value) {
+            this(kind, metric.getHost(), metric.getKey(), value);
+        }
+
+        /** Transition of something other than a metric, e.g. an expression rule (host "rule") */
+        Transition(Kind kind, String host, String key, double value) {
+            this.kind = kind;
+            this.host = host;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final TelegramNotifier notifier;
+    private final int stormThreshold;
+    private final int maxListed;
+
+    public AlertCorrelator(TelegramNotifier notifier, int stormThreshold, int maxListed) {
+        this.notifier = notifier;
+        this.stormThreshold = Math.max(1, stormThreshold);
+        this.maxListed = Math.max(1, maxListed);
+    }
+
+    /** Sends the transitions of one completed cycle. */
+    void flush(Collection<Transition> transitions) {
+        if (transitions.isEmpty()) return;
+
+        /* kind → host → transitions, in kind order and first-seen host order */
+        Map<Kind, Map<String, List<Transition>>> groups = new EnumMap<>(Kind.class);
+        for (Transition t : transitions) {
+            groups.computeIfAbsent(t.kind, k -> new LinkedHashMap<>())
+                  .computeIfAbsent(t.host, h -> new ArrayList<>())
+                  .add(t);
+        }
+
+        if (transitions.size() > stormThreshold) {
+            send(summary(transitions.size(), groups));
+            return;
+        }
+        for (Map.Entry<Kind, Map<String, List<Transition>>> byKind : groups.entrySet()) {
+            for (Map.Entry<String, List<Transition>> byHost : byKind.getValue().entrySet()) {
+                List<Transition> list = byHost.getValue();
+                send(list.size() == 1 ? single(list.get(0)) : digest(byKind.getKey(), byHost.getKey(), list));
+            }
+        }
+    }
+
+    /** The classic per-item message */
+    private static String single(Transition t) {
+        return t.kind.text + ": " + t.host + " " + item(t);
+    }
+
+    private String digest(Kind kind, String host, List<Transition> list) {
+        StringBuilder sb = new StringBuilder(64 + 48 * Math.min(list.size(), maxListed));
+        sb.append(kind.text).append(": ").append(host).append(" (").append(list.size()).append(" items)");
+        for (int i = 0; i < list.size() && i < maxListed; i++) sb.append("\n  ").append(item(list.get(i)));
+        if (list.size() > maxListed) sb.append("\n  +").append(list.size() - maxListed).append(" more");
+        return sb.toString();
+    }
+
+    private String summary(int total, Map<Kind, Map<String, List<Transition>>> groups) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("ALERT STORM: ").append(total).append(" changes in one poll cycle");
+        for (Map.Entry<Kind, Map<String, List<Transition>>> byKind : groups.entrySet()) {
+            Map<String, List<Transition>> hosts = byKind.getValue();
+            int items = 0;
+            for (List<Transition> l : hosts.values()) items += l.size();
+            sb.append('\n').append(byKind.getKey().text).append(": ").append(items)
+              .append(items == 1 ? " item on " : " items on ").append(hosts.size())
+              .append(hosts.size() == 1 ? " host (" : " hosts (");
+            int listed = 0;
+            for (String h : hosts.keySet()) {
+                if (listed == maxListed) {
+                    sb.append(", ...");
+                    break;
+                }
+                if (listed++ > 0) sb.append(", ");
+                sb.append(h);
+            }
+            sb.append(')');
+        }
+        sb.append("\nPer-item details are in the status log.");
+        return sb.toString();
+    }
+
+    /** Item part of a message, as the per-item messages always had it */
+    private static String item(Transition t) {
+        String key = t.key;
+        switch (t.kind) {
+            case OLD_VALUE: return key;
+            case ALERT_MAX:
+            case ALERT_MIN: return key + " " + t.value;
+            default:        return key + " v=" + t.value;
+        }
+    }
+
+    private void send(String text) {
+        try {
+            notifier.sendMessage(text);
+        } catch (Exception e) {
+            System.err.println("Telegram send failed: " + e.getMessage());
+        }
+    }
+}
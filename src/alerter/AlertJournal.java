@@ -0,0 +1,264 @@
+package alerter;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import stats.Registry;
+
+/**
+ * AlertJournal
+ * ------------
+ * Durable alert state for {@link AlertManager}.<br>
+ * • alerts.journal – append-only, memory-mapped log of alert transitions.<br>
+ * • alerts.snap    – compact binary snapshot; the journal is folded into it
+ *   periodically or when it fills up, then restarted empty.<br>
+ * • Startup: snapshot + journal replay (a few ms even for large states).<br>
+ * • Transitions are queued by the caller and written by one background thread,
+ *   so the poller never touches the disk. While the journal is full and the
+ *   snapshot cannot be written, they stay queued (up to MAX_QUEUED, beyond
+ *   that they are dropped and counted) and compaction is retried with backoff;
+ *   the next snapshot then covers the dropped ones.
+ *
+ * Journal record (18 bytes): op(1) itemId(8) type(1) epochMillis(8),
+ * op 1 = SET, 2 = CLEAR, 0 = end of log (the file is zero-filled). The op
+ * byte is stored last, so a record torn by a crash reads as the end of the log.
+ * Snapshot: magic "ZAS1", count(4), count × [itemId(8) type(1) epochMillis(8)].
+ * Set/clear records are absolute, so replaying records already folded into
+ * the snapshot (crash between the two steps) is harmless.
+ */
+public final class AlertJournal {
+
+    private static final byte OP_END = 0, OP_SET = 1, OP_CLEAR = 2;
+    private static final int  RECORD = 18;
+    private static final int  SNAP_MAGIC = 0x5A415331;                 // "ZAS1"
+
+    /** Default journal size: ~233k transitions between compactions */
+    public static final int DEFAULT_CAPACITY = 4 << 20;
+
+    private static final long FLUSH_MS = 1000;
+
+    /** Transitions waiting for the writer; more are dropped (the next snapshot covers them) */
+    static final int MAX_QUEUED = 100_000;
+
+    /** Retry delays of a failed compaction */
+    private static final long MIN_RETRY_MS = 1000, MAX_RETRY_MS = 60_000;
+
+    private static final LongAdder DROPPED = Registry.counter("zabbix_alerter_journal_dropped_total",
+            "Alert transitions not journaled because the writer queue was full", "");
+
+    private final Path snapFile;
+    private final Path journalFile;
+    private final long compactEveryMs;
+    private final FileChannel channel;
+    private final MappedByteBuffer log;
+    private final BlockingQueue<Transition> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+
+    /** Set when a transition was dropped: compact as soon as possible */
+    private volatile boolean lost;
+
+    /* writer thread only */
+    private long compactAt;
+    private long retryMs;
+
+    private AlertJournal(Path dir, int capacity, long compactEveryMs) throws IOException {
+        Files.createDirectories(dir);
+        this.snapFile = dir.resolve("alerts.snap");
+        this.journalFile = dir.resolve("alerts.journal");
+        this.compactEveryMs = compactEveryMs;
+        this.channel = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), capacity - capacity % RECORD);
+        this.log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Opens (or creates) the state directory and replays snapshot + journal.
+     * @param state receives the recovered alert state
+     */
+    public static AlertJournal open(Path dir, int capacity, long compactEveryMs,
+                                    Map<Long, AlertManager.AlertType> state) throws IOException {
+        AlertJournal j = new AlertJournal(dir, capacity, compactEveryMs);
+        j.readSnapshot(state);
+        j.replay(state);
+        return j;
+    }
+
+    /** Starts the writer thread and a shutdown hook that flushes pending transitions. */
+    public void start() {
+        Thread writer = new Thread(this::writerLoop, "alert-journal");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writer.interrupt();
+            try { writer.join(2000); } catch (InterruptedException ignored) {}
+        }));
+    }
+
+    /** Queues a transition; type == null means the alert was cleared. Never blocks. */
+    void append(long itemId, AlertManager.AlertType type) {
+        if (!queue.offer(new Transition(itemId, type, System.currentTimeMillis()))) {
+            DROPPED.increment();
+            lost = true;
+        }
+    }
+
+    /* ---------------- writer ---------------- */
+
+    private void writerLoop() {
+        compactAt = System.currentTimeMillis() + compactEveryMs;
+        Transition held = null;                             // taken from the queue, journal full
+        while (true) {
+            try {
+                if (lost && retryMs == 0) {
+                    lost = false;
+                    compactAt = System.currentTimeMillis();
+                }
+                if (System.currentTimeMillis() >= compactAt) compact();
+
+                Transition t = held != null ? held : queue.poll(FLUSH_MS, TimeUnit.MILLISECONDS);
+                held = null;
+                boolean dirty = false;
+                for (; t != null; t = queue.poll()) {
+                    if (log.remaining() < RECORD && (backingOff() || !compact())) {
+                        held = t;
+                        break;
+                    }
+                    write(t);
+                    dirty = true;
+                }
+                if (dirty) log.force();
+                if (held != null) Thread.sleep(Math.max(1, compactAt - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {                  // e.g. an I/O error on the mapped file
+                System.err.println("Alert journal writer error: " + e);
+                failed();
+                try {
+                    Thread.sleep(retryMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        try {                                               // shutdown: write what fits
+            Transition t = held != null ? held : queue.poll();
+            for (; t != null; t = queue.poll()) {
+                if (log.remaining() < RECORD && !compact()) break;
+                write(t);
+            }
+            log.force();
+        } catch (RuntimeException e) {
+            System.err.println("Alert journal writer error: " + e);
+        }
+    }
+
+    /** Writes one record at the current position; the caller made room for it. */
+    private void write(Transition t) {
+        int pos = log.position();
+        log.putLong(pos + 1, t.itemId);
+        log.put(pos + 9, t.type == null ? 0 : (byte) t.type.ordinal());
+        log.putLong(pos + 10, t.at);
+        log.put(pos, t.type == null ? OP_CLEAR : OP_SET);   // last: a torn record ends the log
+        log.position(pos + RECORD);
+    }
+
+    /**
+     * Writes the live state as a snapshot, then restarts the journal empty.
+     * @return false when the snapshot failed (journal kept, retry scheduled)
+     */
+    private boolean compact() {
+        try {
+            writeSnapshot(AlertManager.snapshot());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Alert snapshot error: " + e.getMessage());
+            failed();
+            return false;
+        }
+        int end = log.position();
+        log.position(0);
+        for (int i = 0; i < end; i++) log.put(OP_END);
+        log.position(0);
+        log.force();
+        retryMs = 0;
+        compactAt = System.currentTimeMillis() + compactEveryMs;
+        return true;
+    }
+
+    /** True while a failed compaction waits for its retry */
+    private boolean backingOff() {
+        return retryMs > 0 && System.currentTimeMillis() < compactAt;
+    }
+
+    /** Backs off the next compaction attempt: 1 s, doubling up to 1 min */
+    private void failed() {
+        retryMs = retryMs == 0 ? MIN_RETRY_MS : Math.min(retryMs * 2, MAX_RETRY_MS);
+        compactAt = System.currentTimeMillis() + retryMs;
+    }
+
+    /* ---------------- snapshot ---------------- */
+
+    private void writeSnapshot(Map<Long, AlertManager.AlertType> state) throws IOException {
+        Path tmp = snapFile.resolveSibling(snapFile.getFileName() + ".tmp");
+        long now = System.currentTimeMillis();
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(SNAP_MAGIC);
+            out.writeInt(state.size());
+            for (Map.Entry<Long, AlertManager.AlertType> e : state.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeByte(e.getValue().ordinal());
+                out.writeLong(now);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, snapFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readSnapshot(Map<Long, AlertManager.AlertType> state) throws IOException {
+        if (!Files.exists(snapFile)) return;
+        AlertManager.AlertType[] types = AlertManager.AlertType.values();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapFile)))) {
+            if (in.readInt() != SNAP_MAGIC) throw new IOException("bad snapshot header in " + snapFile);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long itemId = in.readLong();
+                int type = in.readUnsignedByte();
+                in.readLong();                                   // since, informational
+                if (type < types.length) state.put(itemId, types[type]);
+            }
+        }
+    }
+
+    /** Applies journal records on top of the snapshot and leaves the write position at the end. */
+    private void replay(Map<Long, AlertManager.AlertType> state) {
+        AlertManager.AlertType[] types = AlertManager.AlertType.values();
+        log.position(0);
+        while (log.remaining() >= RECORD) {
+            int pos = log.position();
+            byte op = log.get();
+            if (op != OP_SET && op != OP_CLEAR) {
+                log.position(pos);
+                break;
+            }
+            long itemId = log.getLong();
+            int type = log.get();
+            log.getLong();
+            if (op == OP_CLEAR) state.remove(itemId);
+            else if (type >= 0 && type < types.length) state.put(itemId, types[type]);
+        }
+    }
+
+    private static final class Transition {
+        final long itemId;
+        final AlertManager.AlertType type;
+        final long at;
+        Transition(long itemId, AlertManager.AlertType type, long at) {
+            this.itemId = itemId; this.type = type; this.at = at;
+        }
+    }
+}
@@ -1,41 +1,177 @@
 package alerter;
 
+import config.Metric;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongPredicate;
 
 /**
  * Stores active alerts to avoid duplicates.
+ * With a journal attached every transition is also persisted (see {@link AlertJournal}),
+ * so a restart neither re-sends ALERTs nor forgets pending CLEARs.
+ *
+ * Per-metric state lives in a dense {@link StateStore} indexed by the metric's
+ * slot (assigned by {@link #register}); the poller uses the Metric overloads,
+ * which allocate nothing. The itemId overloads remain for compatibility and
+ * route through an itemId → slot index; ids without a bound slot (the global
+ * ZABBIX_DOWN key, recovered alerts of metrics not polled yet) are kept in a
+ * small side map until a metric binds them. With several Zabbix servers the
+ * index is keyed by {@link Metric#stateKey()}, and read health and ZABBIX_DOWN
+ * are tracked per server; the server-less methods act on the default server.
  */
 public final class AlertManager {
 
     /** Types of alerts we can raise */
     public enum AlertType { OVER, UNDER, OLD_VALUE, ZABBIX_DOWN }
 
-    /** key = itemId, value = current alert type */
-    private static final ConcurrentMap<Long, AlertType> alerts = new ConcurrentHashMap<>();
+    /** Slot-indexed values and alert state of all registered metrics */
+    private static final StateStore state = new StateStore();
+
+    /** itemId → slot of the metric currently bound to it */
+    private static final ConcurrentMap<Long, Integer> slotOf = new ConcurrentHashMap<>();
+
+    /** key = itemId, value = alert type, for ids not bound to a slot */
+    private static final ConcurrentMap<Long, AlertType> unbound = new ConcurrentHashMap<>();
 
-    /** Special key (0L) used for global ZABBIX_DOWN alert */
+    /** Special key (0L) used for global ZABBIX_DOWN alert (default server) */
     private static final Long GLOBAL = 0L;
 
-    /** Timestamp of last successful Zabbix poll (in ms since epoch) */
-    private static volatile long lastSuccessRead = System.currentTimeMillis();
+    /** Read health of one Zabbix server */
+    private static final class Health {
+        /** Timestamp of last successful Zabbix poll (in ms since epoch) */
+        volatile long lastSuccessRead = System.currentTimeMillis();
+        /** Time (ms) the Zabbix client's circuit breaker opened, 0 = closed */
+        volatile long unreachableSince;
+    }
+
+    /** key = server name, "" = default server */
+    private static final ConcurrentMap<String, Health> health = new ConcurrentHashMap<>();
 
-    /** Minimum duration (ms) before raising ZABBIX DOWN alert */
+    /** Minimum duration (ms) without a successful read before raising ZABBIX DOWN alert */
     public static long thresholdMs = 5 * 60 * 1000; // 5 minutes
 
+    /** Optional persistence of transitions (null = in-memory only) */
+    private static volatile AlertJournal journal;
+
     private AlertManager() {}
 
+    /** Loads recovered state and persists every later transition through the journal. */
+    public static void attachJournal(AlertJournal j, Map<Long, AlertType> recovered) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, AlertType> e : recovered.entrySet()) {
+            Integer slot = slotOf.get(e.getKey());
+            if (slot != null) state.swapAlert(slot, e.getValue(), now);
+            else unbound.put(e.getKey(), e.getValue());
+        }
+        journal = j;
+    }
+
+    /**
+     * Drops the side-map alerts nothing claims any more (recovered for items
+     * since removed from the config), journaling a clear for each, so they
+     * neither count as active nor come back on the next restart.
+     * @return number of alerts dropped
+     */
+    public static int dropUnclaimed(LongPredicate claimed) {
+        AlertJournal j = journal;
+        int n = 0;
+        for (Long id : unbound.keySet()) {
+            if (claimed.test(id) || unbound.remove(id) == null) continue;
+            n++;
+            if (j != null) j.append(id, null);
+        }
+        return n;
+    }
+
+    /* ---------------- slots ---------------- */
+
+    /** Slot-indexed state shared with the poller */
+    public static StateStore state() { return state; }
+
+    /** Assigns a state slot to every metric that has none yet. */
+    public static void register(Collection<Metric> metrics) {
+        for (Metric m : metrics) if (m.getSlot() < 0) m.setSlot(state.allocate());
+    }
+
+    /** Frees the slot of a removed metric (its alert must already be cleared). */
+    public static void release(Metric m) {
+        int slot = m.getSlot();
+        if (slot < 0) return;
+        synchronized (slotOf) {
+            long id = state.itemId(slot);
+            if (id != 0) slotOf.remove(id, slot);
+            state.release(slot);
+        }
+        m.setSlot(-1);
+    }
+
+    /**
+     * Makes sure the metric's slot is bound to its current itemId; an alert
+     * waiting for that itemId in the side map moves into the slot.
+     */
+    private static int bind(Metric m) {
+        int slot = m.getSlot();
+        long id = m.stateKey();
+        if (state.itemId(slot) == id) return slot;
+        synchronized (slotOf) {
+            long old = state.itemId(slot);
+            if (old == id) return slot;
+            if (old != 0) slotOf.remove(old, slot);
+            slotOf.put(id, slot);
+            state.bindItemId(slot, id);
+            AlertType waiting = unbound.remove(id);
+            if (waiting != null && state.alert(slot) == null)
+                state.swapAlert(slot, waiting, System.currentTimeMillis());
+        }
+        return slot;
+    }
+
+    /* ---------------- per-metric API (slot based) ---------------- */
+
+    public static AlertType getAlert(Metric m) {
+        return state.alert(bind(m));
+    }
+    public static void setAlert(Metric m, AlertType type) {
+        int slot = bind(m);
+        AlertJournal j = journal;
+        if (state.swapAlert(slot, type, System.currentTimeMillis()) != type && j != null)
+            j.append(m.stateKey(), type);
+    }
+    public static void clearAlert(Metric m) {
+        int slot = bind(m);
+        AlertJournal j = journal;
+        if (state.swapAlert(slot, null, System.currentTimeMillis()) != null && j != null)
+            j.append(m.stateKey(), null);
+    }
+
+    /* ---------------- itemId API (compatibility) ---------------- */
+
     public static boolean wasAlerted(long itemId, AlertType type) {
-        return alerts.get(itemId) == type;
+        return getAlert(itemId) == type;
     }
     public static void setAlert(long itemId, AlertType type) {
-        alerts.put(itemId, type);
+        Integer slot = slotOf.get(itemId);
+        AlertType prev = slot != null
+                ? state.swapAlert(slot, type, System.currentTimeMillis())
+                : unbound.put(itemId, type);
+        AlertJournal j = journal;
+        if (prev != type && j != null) j.append(itemId, type);
     }
     public static void clearAlert(long itemId) {
-        alerts.remove(itemId);
+        Integer slot = slotOf.get(itemId);
+        AlertType prev = slot != null
+                ? state.swapAlert(slot, null, System.currentTimeMillis())
+                : unbound.remove(itemId);
+        AlertJournal j = journal;
+        if (prev != null && j != null) j.append(itemId, null);
     }
     public static AlertType getAlert(long itemId) {
-        return alerts.get(itemId);
+        Integer slot = slotOf.get(itemId);
+        return slot != null ? state.alert(slot) : unbound.get(itemId);
     }
 
     /* Global Zabbix-down helpers */
@@ -43,13 +179,77 @@ public final class AlertManager {
     public static void setGlobalDown()  { setAlert(GLOBAL,  AlertType.ZABBIX_DOWN); }
     public static void clearGlobalDown(){ clearAlert(GLOBAL); }
 
-    /** Updates timestamp of last successful Zabbix poll */
-    public static void updateLastSuccessRead() {
-        lastSuccessRead = System.currentTimeMillis();
+    /* Per-server Zabbix-down helpers (key = the server's state key tag) */
+    public static boolean isGlobalDown(String server) {
+        return wasAlerted(Metric.serverTag(server), AlertType.ZABBIX_DOWN);
+    }
+    public static void setGlobalDown(String server)   { setAlert(Metric.serverTag(server), AlertType.ZABBIX_DOWN); }
+    public static void clearGlobalDown(String server) { clearAlert(Metric.serverTag(server)); }
+
+    /** Copy of the current state keyed by itemId (journal compaction) */
+    static Map<Long, AlertType> snapshot() {
+        Map<Long, AlertType> copy = new HashMap<>(unbound);
+        for (int slot = 0, n = state.highWater(); slot < n; slot++) {
+            AlertType t = state.alert(slot);
+            long id = state.itemId(slot);
+            if (t != null && id != 0) copy.put(id, t);
+        }
+        return copy;
+    }
+
+    /** Number of active alerts */
+    public static int activeCount() {
+        int n = unbound.size();
+        for (int slot = 0, hw = state.highWater(); slot < hw; slot++) {
+            if (state.alert(slot) != null) n++;
+        }
+        return n;
+    }
+
+    /** Number of active alerts of one type */
+    public static int activeCount(AlertType type) {
+        int n = 0;
+        for (AlertType t : unbound.values()) if (t == type) n++;
+        for (int slot = 0, hw = state.highWater(); slot < hw; slot++) {
+            if (state.alert(slot) == type) n++;
+        }
+        return n;
+    }
+
+    private static Health health(String server) {
+        return health.computeIfAbsent(server, s -> new Health());
+    }
+
+    /* default server */
+    public static void updateLastSuccessRead()              { updateLastSuccessRead(""); }
+    public static void setZabbixReachable(boolean reachable) { setZabbixReachable("", reachable); }
+    public static boolean isZabbixUnreachable()             { return isZabbixUnreachable(""); }
+    public static boolean shouldAlertZabbixDown()           { return shouldAlertZabbixDown(""); }
+
+    /** Updates timestamp of last successful poll of the server */
+    public static void updateLastSuccessRead(String server) {
+        health(server).lastSuccessRead = System.currentTimeMillis();
+    }
+
+    /** Fed by the server's circuit breaker: false when it opens, true when it closes */
+    public static void setZabbixReachable(String server, boolean reachable) {
+        Health h = health(server);
+        if (reachable) {
+            h.unreachableSince = 0;
+            h.lastSuccessRead = System.currentTimeMillis();
+        } else if (h.unreachableSince == 0) {
+            h.unreachableSince = System.currentTimeMillis();
+        }
+    }
+
+    /** True while the server's circuit breaker reports it unreachable */
+    public static boolean isZabbixUnreachable(String server) {
+        return health(server).unreachableSince != 0;
     }
 
-    /** Returns true if Zabbix is considered DOWN long enough */
-    public static boolean shouldAlertZabbixDown() {
-        return (System.currentTimeMillis() - lastSuccessRead) > thresholdMs;
+    /** Returns true if the server is considered DOWN: breaker open, or no successful read for thresholdMs */
+    public static boolean shouldAlertZabbixDown(String server) {
+        Health h = health(server);
+        return h.unreachableSince != 0 || (System.currentTimeMillis() - h.lastSuccessRead) > thresholdMs;
     }
 }
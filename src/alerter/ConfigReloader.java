@@ -0,0 +1,99 @@
+package alerter;
+
+import config.Metric;
+import config.MetricsConfig;
+import zabbix.ItemResolver;
+
+import java.util.*;
+
+/**
+ * ConfigReloader
+ * --------------
+ * Applies a re-read metricsettings.xml to the running poller by diffing on
+ * (server, host, key):
+ *   • unchanged – the live Metric object is kept as is;
+ *   • changed   – thresholds / alertType / scheduling differ: a new Metric object
+ *                 inherits the itemId and state slot, so alert state is untouched;
+ *   • added     – given a state slot and resolved (only these) before the swap;
+ *   • removed   – retired, their alerts cleared and slots released.
+ * Expression rules are recompiled against the merged list on every reload.
+ * Recovered alerts that no metric of the new list claims are dropped.
+ * Added metrics are resolved by their server's {@link ItemResolver}; a server
+ * not declared at startup has none, so its metrics stay unresolved.
+ * The poller swaps the whole list at once, so a cycle in flight works on either
+ * the old or the new list, never on a half-updated one.
+ */
+public final class ConfigReloader {
+
+    private final MetricPoller poller;
+    /** key = server name, "" = default server */
+    private final Map<String, ItemResolver> resolvers;
+
+    public ConfigReloader(MetricPoller poller, ItemResolver resolver) {
+        this(poller, Map.of("", resolver));
+    }
+
+    public ConfigReloader(MetricPoller poller, Map<String, ItemResolver> resolvers) {
+        this.poller    = poller;
+        this.resolvers = Map.copyOf(resolvers);
+    }
+
+    public synchronized void apply(MetricsConfig cfg) {
+        List<Metric> live = poller.getMetrics();
+        Map<String, Metric> liveById = new HashMap<>();
+        for (Metric m : live) liveById.putIfAbsent(m.identity(), m);
+
+        List<Metric> merged = new ArrayList<>();
+        List<Metric> added  = new ArrayList<>();
+        Set<String>  kept   = new HashSet<>();
+        int changed = 0;
+
+        for (Metric next : cfg.getMetricList()) {
+            Metric old = liveById.get(next.identity());
+            if (old == null || !kept.add(next.identity())) {       // new (or duplicate) entry
+                added.add(next);
+                merged.add(next);
+            } else if (old.sameSettings(next)) {
+                merged.add(old);
+            } else {
+                next.inheritState(old);
+                merged.add(next);
+                changed++;
+            }
+        }
+
+        List<Metric> removed = new ArrayList<>();
+        for (Metric m : live) if (!kept.contains(m.identity())) removed.add(m);
+
+        if (added.isEmpty() && removed.isEmpty() && changed == 0) {
+            poller.replaceRules(cfg.getRuleList());
+            System.out.println("Config reloaded: no metric changes");
+            return;
+        }
+
+        if (!added.isEmpty()) {
+            AlertManager.register(added);
+            byServer(added).forEach((server, list) -> {
+                ItemResolver r = resolvers.get(server);
+                if (r != null) r.resolveNow(list);
+                else System.err.printf("Config: server '%s' is not configured, %d metric(s) skipped%n",
+                        server, list.size());
+            });
+        }
+        for (Metric m : removed) m.setRetired(true);
+        poller.replaceMetrics(merged, removed);
+        poller.replaceRules(cfg.getRuleList());             // compiled against the merged list
+        Map<String, List<Metric>> mergedByServer = byServer(merged);
+        resolvers.forEach((server, r) -> r.setMetrics(mergedByServer.getOrDefault(server, List.of())));
+        poller.dropUnclaimedAlerts();
+
+        System.out.printf("Config reloaded: +%d added, -%d removed, ~%d changed (%d metrics)%n",
+                added.size(), removed.size(), changed, merged.size());
+    }
+
+    private static Map<String, List<Metric>> byServer(List<Metric> list) {
+        Map<String, List<Metric>> map = new LinkedHashMap<>();
+        for (Metric m : list) map.computeIfAbsent(m.getServer(), k -> new ArrayList<>()).add(m);
+        return map;
+    }
+}
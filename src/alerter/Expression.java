@@ -0,0 +1,329 @@
+package alerter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Expression
+ * ----------
+ * Compiled rule expression (syntax in {@link config.Rule}). The source is
+ * parsed once into a tree of small specialized nodes evaluated against a
+ * value snapshot: double[] indexed by input, filled by the {@link RuleEngine}.
+ * Constant sub-trees are folded at compile time. A reference to a metric
+ * without data is NaN; NaN propagates through arithmetic, aggregates skip it.
+ *
+ * Grammar:
+ *   expr    := term (('+' | '-') term)*
+ *   term    := unary (('*' | '/') unary)*
+ *   unary   := '-' unary | primary
+ *   primary := number | '(' expr ')' | name '(' args ')'
+ */
+abstract class Expression {
+
+    /** Maps a (host glob, key glob) reference to snapshot input indexes (empty = no match) */
+    interface Inputs {
+        int[] resolve(String hostGlob, String keyGlob);
+    }
+
+    abstract double eval(double[] in);
+
+    boolean isConst() { return false; }
+
+    /** @throws IllegalArgumentException on a syntax error or an unresolvable reference */
+    static Expression compile(String src, Inputs inputs) {
+        return new Parser(src, inputs).parse();
+    }
+
+    /* ---------------- nodes ---------------- */
+
+    private static final class Const extends Expression {
+        final double v;
+        Const(double v) { this.v = v; }
+        @Override double eval(double[] in) { return v; }
+        @Override boolean isConst() { return true; }
+    }
+
+    private static final class Ref extends Expression {
+        final int i;
+        Ref(int i) { this.i = i; }
+        @Override double eval(double[] in) { return in[i]; }
+    }
+
+    private static final class Add extends Expression {
+        final Expression a, b;
+        Add(Expression a, Expression b) { this.a = a; this.b = b; }
+        @Override double eval(double[] in) { return a.eval(in) + b.eval(in); }
+    }
+
+    private static final class Sub extends Expression {
+        final Expression a, b;
+        Sub(Expression a, Expression b) { this.a = a; this.b = b; }
+        @Override double eval(double[] in) { return a.eval(in) - b.eval(in); }
+    }
+
+    private static final class Mul extends Expression {
+        final Expression a, b;
+        Mul(Expression a, Expression b) { this.a = a; this.b = b; }
+        @Override double eval(double[] in) { return a.eval(in) * b.eval(in); }
+    }
+
+    /** x / 0 is NaN rather than ±Infinity, so a zero total never raises */
+    private static final class Div extends Expression {
+        final Expression a, b;
+        Div(Expression a, Expression b) { this.a = a; this.b = b; }
+        @Override double eval(double[] in) {
+            double d = b.eval(in);
+            return d == 0 ? Double.NaN : a.eval(in) / d;
+        }
+    }
+
+    /** Ref / Ref, the common "used / total" shape, without virtual calls */
+    private static final class RefRatio extends Expression {
+        final int a, b;
+        RefRatio(int a, int b) { this.a = a; this.b = b; }
+        @Override double eval(double[] in) {
+            double d = in[b];
+            return d == 0 ? Double.NaN : in[a] / d;
+        }
+    }
+
+    private static final class Neg extends Expression {
+        final Expression a;
+        Neg(Expression a) { this.a = a; }
+        @Override double eval(double[] in) { return -a.eval(in); }
+    }
+
+    private static final class Abs extends Expression {
+        final Expression a;
+        Abs(Expression a) { this.a = a; }
+        @Override double eval(double[] in) { return Math.abs(a.eval(in)); }
+    }
+
+    /** min / max over sub-expressions; NaN if any is NaN */
+    private static final class Extreme extends Expression {
+        final Expression[] args;
+        final boolean max;
+        Extreme(Expression[] args, boolean max) { this.args = args; this.max = max; }
+        @Override double eval(double[] in) {
+            double r = args[0].eval(in);
+            for (int k = 1; k < args.length; k++) r = max ? Math.max(r, args[k].eval(in)) : Math.min(r, args[k].eval(in));
+            return r;
+        }
+    }
+
+    private enum AggKind { MIN, MAX, AVG, SUM, COUNT }
+
+    /** Aggregate over matched inputs, skipping NaN (no data); NaN when none has data, except count */
+    private static final class Aggregate extends Expression {
+        final int[] idx;
+        final AggKind kind;
+        Aggregate(int[] idx, AggKind kind) { this.idx = idx; this.kind = kind; }
+        @Override double eval(double[] in) {
+            double acc = kind == AggKind.MIN ? Double.POSITIVE_INFINITY
+                       : kind == AggKind.MAX ? Double.NEGATIVE_INFINITY : 0;
+            int n = 0;
+            for (int i : idx) {
+                double v = in[i];
+                if (Double.isNaN(v)) continue;
+                n++;
+                switch (kind) {
+                    case MIN: acc = Math.min(acc, v); break;
+                    case MAX: acc = Math.max(acc, v); break;
+                    default:  acc += v;
+                }
+            }
+            if (kind == AggKind.COUNT) return n;
+            if (n == 0) return Double.NaN;
+            return kind == AggKind.AVG ? acc / n : acc;
+        }
+    }
+
+    /* ---------------- parser ---------------- */
+
+    private static final class Parser {
+        private final String src;
+        private final Inputs inputs;
+        private int pos;
+
+        Parser(String src, Inputs inputs) {
+            this.src = src;
+            this.inputs = inputs;
+        }
+
+        Expression parse() {
+            Expression e = expr();
+            skipSpace();
+            if (pos < src.length()) throw error("unexpected '" + src.charAt(pos) + "'");
+            return e;
+        }
+
+        private Expression expr() {
+            Expression e = term();
+            while (true) {
+                if (eat('+'))      e = fold(new Add(e, term()));
+                else if (eat('-')) e = fold(new Sub(e, term()));
+                else return e;
+            }
+        }
+
+        private Expression term() {
+            Expression e = unary();
+            while (true) {
+                if (eat('*')) {
+                    e = fold(new Mul(e, unary()));
+                } else if (eat('/')) {
+                    Expression d = unary();
+                    e = e instanceof Ref && d instanceof Ref
+                            ? new RefRatio(((Ref) e).i, ((Ref) d).i)
+                            : fold(new Div(e, d));
+                } else {
+                    return e;
+                }
+            }
+        }
+
+        private Expression unary() {
+            if (eat('-')) return fold(new Neg(unary()));
+            return primary();
+        }
+
+        private Expression primary() {
+            skipSpace();
+            if (pos >= src.length()) throw error("unexpected end");
+            char c = src.charAt(pos);
+            if (eat('(')) {
+                Expression e = expr();
+                expect(')');
+                return e;
+            }
+            if (Character.isDigit(c) || c == '.') return new Const(number());
+            if (Character.isLetter(c)) return call(name());
+            throw error("unexpected '" + c + "'");
+        }
+
+        private Expression call(String fn) {
+            expect('(');
+            skipSpace();
+            if (pos < src.length() && src.charAt(pos) == '"') {       // metric reference
+                String host = string();
+                expect(',');
+                String key = string();
+                expect(')');
+                return reference(fn, host, key);
+            }
+            List<Expression> args = new ArrayList<>();
+            do {
+                args.add(expr());
+            } while (eat(','));
+            expect(')');
+            Expression[] a = args.toArray(new Expression[0]);
+            switch (fn) {
+                case "abs":
+                    if (a.length != 1) throw error("abs() takes one argument");
+                    return fold(new Abs(a[0]));
+                case "min":
+                case "max":
+                    return a.length == 1 ? a[0] : fold(new Extreme(a, fn.equals("max")));
+                default:
+                    throw error("unknown function " + fn + "()");
+            }
+        }
+
+        private Expression reference(String fn, String host, String key) {
+            int[] idx = inputs.resolve(host, key);
+            if (fn.equals("last")) {
+                if (idx.length != 1)
+                    throw error("last(\"" + host + "\", \"" + key + "\") matches " + idx.length
+                            + " metrics" + (idx.length > 1 ? "; use min/max/avg/sum/count" : ""));
+                return new Ref(idx[0]);
+            }
+            AggKind kind;
+            try {
+                kind = AggKind.valueOf(fn.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw error("unknown function " + fn + "()");
+            }
+            if (idx.length == 0) throw error(fn + "(\"" + host + "\", \"" + key + "\") matches no metric");
+            return new Aggregate(idx, kind);
+        }
+
+        /** Replaces a node whose children are all constant by its value */
+        private static Expression fold(Expression e) {
+            if (e instanceof Add && ((Add) e).a.isConst() && ((Add) e).b.isConst()
+                    || e instanceof Sub && ((Sub) e).a.isConst() && ((Sub) e).b.isConst()
+                    || e instanceof Mul && ((Mul) e).a.isConst() && ((Mul) e).b.isConst()
+                    || e instanceof Div && ((Div) e).a.isConst() && ((Div) e).b.isConst()
+                    || e instanceof Neg && ((Neg) e).a.isConst()
+                    || e instanceof Abs && ((Abs) e).a.isConst()
+                    || e instanceof Extreme && allConst(((Extreme) e).args)) {
+                return new Const(e.eval(null));
+            }
+            return e;
+        }
+
+        private static boolean allConst(Expression[] a) {
+            for (Expression x : a) if (!x.isConst()) return false;
+            return true;
+        }
+
+        /* ---- lexing ---- */
+
+        private double number() {
+            int start = pos;
+            while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) pos++;
+            if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) pos++;
+                while (pos < src.length() && Character.isDigit(src.charAt(pos))) pos++;
+            }
+            try {
+                return Double.parseDouble(src.substring(start, pos));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("bad number");
+            }
+        }
+
+        private String name() {
+            int start = pos;
+            while (pos < src.length() && Character.isLetterOrDigit(src.charAt(pos))) pos++;
+            return src.substring(start, pos).toLowerCase();
+        }
+
+        /** "…" with \" and \\ escapes */
+        private String string() {
+            skipSpace();
+            if (pos >= src.length() || src.charAt(pos) != '"') throw error("expected a quoted string");
+            StringBuilder sb = new StringBuilder();
+            pos++;
+            while (pos < src.length()) {
+                char c = src.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c == '\\' && pos < src.length()) c = src.charAt(pos++);
+                sb.append(c);
+            }
+            throw error("unterminated string");
+        }
+
+        private boolean eat(char c) {
+            skipSpace();
+            if (pos < src.length() && src.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!eat(c)) throw error("expected '" + c + "'");
+        }
+
+        private void skipSpace() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException(msg + " at position " + pos);
+        }
+    }
+}
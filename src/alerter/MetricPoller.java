@@ -1,176 +1,980 @@
 package alerter;
 
 import config.Metric;
-import zabbix.ZabbixClient;
+import config.Rule;
+import stats.Histogram;
+import stats.Registry;
+import zabbix.MetricSource;
+import zabbix.ReplaySource;
 import telegram.TelegramNotifier;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * MetricPoller
  * -------------
- * • Polls Zabbix items every <pollSec> seconds.<br>
+ * • Polls every metric on its own interval (pollInterval, default <pollSec>
+ *     seconds, ± jitter). A hashed timing wheel with 1-second ticks spreads
+ *     metrics evenly across their period; the metrics due in the same tick are
+ *     read with one batched call to the {@link MetricSource} (history.get by
+ *     default) and hysteresis is evaluated over the returned value map.<br>
  * • Works with MAX / MIN metrics (hysteresis).<br>
  * • Telegram messages now contain host and use tags
  *     “ALERT MAX / ALERT MIN” instead of OVER / UNDER.<br>
- * • Console shows “ALERT … ongoing” while alarm is active.
+ * • Console shows “ALERT … ongoing” while alarm is active. Status lines go
+ *     through a {@link StatusLog} ring, formatted and written by its own thread.<br>
+ * • Evaluation runs on a fixed thread pool or, in VIRTUAL mode, on one virtual
+ *     thread per metric; both are capped by a semaphore (maxConcurrency).<br>
+ * • Each tick's metrics form a cycle with a deadline (cycleTimeoutSec, default
+ *     the shortest interval in it). A metric whose previous poll is still in
+ *     flight is not polled again, evaluations that would start after the
+ *     deadline are cancelled, and the evaluation queue is bounded
+ *     (queueCapacity). ZABBIX DOWN is decided when a cycle completes, from the
+ *     Zabbix client's circuit breaker (see {@link AlertManager#setZabbixReachable})
+ *     or, failing that, from a cycle without any successful read.<br>
+ * • Several Zabbix servers ({@link #addServer}): a tick's metrics are split by
+ *     server into independent cycles, each read through its server's client
+ *     (own in-flight limit and breaker), so a slow server only delays its own
+ *     metrics. ZABBIX DOWN is tracked per server.<br>
+ * • Cycle outcomes and durations, skipped and dropped metrics are recorded in
+ *     {@link stats.Registry}.<br>
+ * • Push mode ({@link #setPushSweepSec}): values pushed through {@link PushServer}
+ *     are evaluated on arrival and polling only sweeps the metrics nothing was
+ *     pushed for.<br>
+ * • Alert transitions are not sent one by one: the {@link AlertCorrelator}
+ *     sends them per cycle as one digest per host and kind, or a single
+ *     summary in an alert storm.<br>
+ * • Expression rules over several metrics ({@link config.Rule}) are compiled
+ *     once by a {@link RuleEngine}; when a cycle completes, only the rules
+ *     whose input metrics were evaluated in the meantime are re-evaluated.<br>
+ * • Metrics with a windowed rule (AVG / RATE / sustainedSamples) read every
+ *     point since the last one seen into a {@link RuleWindow} and alert on the
+ *     rule value instead of the newest sample.<br>
+ * • Sharded mode ({@link #setShardManager}): only the metrics this node owns
+ *     are polled; rule inputs, rules and ZABBIX DOWN belong to the leader.<br>
+ * • Replay ({@link #setReplay}): the wheel ticks once per virtual second of
+ *     the recording, each tick's cycles complete before the next one, so the
+ *     replay speed changes how fast the recording is evaluated, not what.
  */
 public class MetricPoller {
 
-    private final List<Metric>  metrics;
-    private final ZabbixClient  client;
+    /** How per-metric evaluation tasks are executed */
+    public enum ExecutionMode { FIXED, VIRTUAL }
+
+    /** Live metric list; replaced as a whole on config reload */
+    private volatile List<Metric> metrics;
+    /** Where values are read from: a ZabbixClient (history.get) or another {@link MetricSource} */
+    private final MetricSource  source;
+    /** Source per server name, "" = the default server's source */
+    private final Map<String, MetricSource> sources = new ConcurrentHashMap<>();
     private final TelegramNotifier notifier;
     private final ScheduledExecutorService scheduler;
     private final ExecutorService pool;
+    private final Semaphore permits;
     private final int pollSec;
     private final int statusEveryMin;
 
-    private final ConcurrentMap<Long, Double> lastValues = new ConcurrentHashMap<>();
+    /** Default max evaluation tasks waiting for a thread or permit */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    /** Cycle deadline in seconds; 0 = the shortest poll interval in the cycle */
+    private volatile int cycleTimeoutSec;
+    /** Compiled expression rules; replaced as a whole on config reload */
+    private volatile RuleEngine rules;
+    /** Push mode staleness sweep in seconds; 0 = polling mode */
+    private volatile int pushSweepSec;
+
+    /** Per-metric status lines; console text unless replaced before start() */
+    private volatile StatusLog statusLog;
+    /** Groups the alert transitions of a cycle into digests before Telegram */
+    private volatile AlertCorrelator correlator;
+    /** Metric partition of this node; null = not sharded, every metric is ours */
+    private volatile ShardManager shard;
+    /** Live nodes ownership is computed for; swapped by shardChanged once the takeover is done */
+    private volatile long shardMask;
+    /** Drives the wheel on its virtual clock; null = wall-clock ticks */
+    private volatile ReplaySource replay;
+
+    /** Cycles started and not completed yet (a replay waits for them per tick) */
+    private final AtomicInteger openCycles = new AtomicInteger();
+
+    /** Completed by the first evaluation (startup time measurement) */
+    private final CompletableFuture<Void> firstEvaluation = new CompletableFuture<>();
+
+    /** Evaluation tasks waiting for a thread or permit / currently running */
+    private final AtomicInteger queuedTasks  = new AtomicInteger();
+    private final AtomicInteger runningTasks = new AtomicInteger();
+
+    /* ---- instrumentation ---- */
+    private static final Histogram CYCLE = Registry.histogram("zabbix_alerter_cycle_duration_seconds",
+            "Poll cycle: batched read plus evaluation of the metrics due in one tick", "");
+    private static final LongAdder SKIPPED = Registry.counter("zabbix_alerter_skipped_metrics_total",
+            "Metrics due for polling but skipped because their itemId is not resolved", "");
+    private static final LongAdder EVALUATED = Registry.counter("zabbix_alerter_evaluations_total",
+            "Metric evaluations completed (value or no data)", "");
+    private static final String CYCLES_NAME = "zabbix_alerter_cycles_total";
+    private static final String CYCLES_HELP = "Poll cycles by outcome (started, completed before the deadline, timed out)";
+    private static final LongAdder CYCLES_STARTED   = Registry.counter(CYCLES_NAME, CYCLES_HELP, "state=\"started\"");
+    private static final LongAdder CYCLES_COMPLETED = Registry.counter(CYCLES_NAME, CYCLES_HELP, "state=\"completed\"");
+    private static final LongAdder CYCLES_TIMED_OUT = Registry.counter(CYCLES_NAME, CYCLES_HELP, "state=\"timed_out\"");
+    private static final String DROPPED_NAME = "zabbix_alerter_dropped_polls_total";
+    private static final String DROPPED_HELP = "Metric polls not evaluated: previous poll in flight, queue full, or past the cycle deadline";
+    private static final LongAdder OVERLAPPED   = Registry.counter(DROPPED_NAME, DROPPED_HELP, "reason=\"overlap\"");
+    private static final LongAdder DROPPED_FULL = Registry.counter(DROPPED_NAME, DROPPED_HELP, "reason=\"queue_full\"");
+    private static final LongAdder DROPPED_LATE = Registry.counter(DROPPED_NAME, DROPPED_HELP, "reason=\"deadline\"");
+
+    /**
+     * Windowed reads start at the newest point each metric already holds,
+     * rounded down to this grid; metrics on the same grid step share one
+     * history.get (re-read points are dropped by {@link #ingest}).
+     */
+    private static final long SINCE_STEP_SEC = 60;
+
+    /** One slot per second, one hour per revolution; touched only by the scheduler thread */
+    private static final int WHEEL_SLOTS = 3600;
+    private final TimingWheel<Metric> wheel = new TimingWheel<>(WHEEL_SLOTS);
 
     public MetricPoller(List<Metric> metrics,
-                        ZabbixClient client,
+                        MetricSource source,
                         TelegramNotifier notifier,
                         int poolSize,
                         int pollSeconds,
                         int statusEveryMinutes) {
+        this(metrics, source, notifier, ExecutionMode.FIXED, poolSize, poolSize,
+                pollSeconds, statusEveryMinutes);
+    }
 
-        this.metrics        = metrics;
-        this.client         = client;
+    /**
+     * @param mode           FIXED = pool of poolSize threads; VIRTUAL = virtual thread per task
+     *                       (JDK 21+, falls back to a fixed pool of maxConcurrency threads)
+     * @param maxConcurrency max evaluation tasks running at once
+     */
+    public MetricPoller(List<Metric> metrics,
+                        MetricSource source,
+                        TelegramNotifier notifier,
+                        ExecutionMode mode,
+                        int poolSize,
+                        int maxConcurrency,
+                        int pollSeconds,
+                        int statusEveryMinutes) {
+
+        this.metrics        = List.copyOf(metrics);
+        this.source         = source;
+        this.sources.put("", source);
         this.notifier       = notifier;
+        this.correlator     = new AlertCorrelator(notifier, AlertCorrelator.DEFAULT_STORM_THRESHOLD,
+                                                  AlertCorrelator.DEFAULT_MAX_LISTED);
         this.pollSec        = pollSeconds;
         this.statusEveryMin = statusEveryMinutes;
-        this.pool           = Executors.newFixedThreadPool(poolSize);
+        this.permits        = new Semaphore(Math.max(1, maxConcurrency));
+        this.pool           = newPool(mode, poolSize, maxConcurrency);
         this.scheduler      = Executors.newSingleThreadScheduledExecutor();
     }
 
+    private static ExecutorService newPool(ExecutionMode mode, int poolSize, int maxConcurrency) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            try {   // reflective: the project still compiles for JDK 17
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.err.printf("Virtual threads unavailable on Java %s, using %d platform threads%n",
+                        System.getProperty("java.version"), maxConcurrency);
+                return Executors.newFixedThreadPool(Math.max(1, maxConcurrency));
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, poolSize));
+    }
+
+    /** Runs a task on the pool once a concurrency permit is free; false when the queue is full. */
+    private boolean submit(Runnable task) {
+        if (queuedTasks.incrementAndGet() > queueCapacity) {
+            queuedTasks.decrementAndGet();
+            return false;
+        }
+        pool.execute(() -> {
+            permits.acquireUninterruptibly();
+            queuedTasks.decrementAndGet();
+            runningTasks.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                runningTasks.decrementAndGet();
+                permits.release();
+            }
+        });
+        return true;
+    }
+
+    /** Evaluation tasks submitted but not started yet */
+    public int getQueuedTasks()  { return queuedTasks.get(); }
+
+    /** Evaluation tasks running right now */
+    public int getRunningTasks() { return runningTasks.get(); }
+
+    public int  getQueueCapacity()             { return queueCapacity; }
+    public void setQueueCapacity(int tasks)    { this.queueCapacity = Math.max(1, tasks); }
+
+    public int  getCycleTimeoutSec()           { return cycleTimeoutSec; }
+    public void setCycleTimeoutSec(int sec)    { this.cycleTimeoutSec = Math.max(0, sec); }
+
     public void start() {
-        scheduler.scheduleAtFixedRate(this::pollAll, 0, pollSec, TimeUnit.SECONDS);
+        StatusLog log = statusLog != null ? statusLog : StatusLog.console();
+        statusLog = log.start();
+        scheduler.execute(() -> {
+            for (Metric m : metrics) wheel.schedule(m, firstDelay(m));
+        });
+        scheduler.scheduleAtFixedRate(this::tick, 0, 1, TimeUnit.SECONDS);   // first tick at once: no idle second at startup
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             scheduler.shutdown();
             pool.shutdown();
+            log.close();
         }));
     }
 
+    /**
+     * Push mode: values arrive through {@link #accept}; polling becomes a sweep
+     * every sec seconds that only reads metrics with no value pushed within it.
+     * 0 (default) = polling mode. Call before start().
+     */
+    public void setPushSweepSec(int sec) { this.pushSweepSec = Math.max(0, sec); }
+
+    /**
+     * Polls the metrics naming this server through their own source (client),
+     * so their reads have their own in-flight limit and circuit breaker. Call before start().
+     */
+    public void addServer(String name, MetricSource serverSource) { sources.put(name, serverSource); }
+
+    /** Replaces the console status log; call before start(), which starts it. */
+    public void setStatusLog(StatusLog log) { this.statusLog = log; }
+
+    /** Replaces the default alert correlation (storm threshold, digest length). */
+    public void setAlertCorrelator(AlertCorrelator c) { this.correlator = c; }
+
+    /**
+     * Polls only this node's partition of the metrics. When the live nodes
+     * change, the metrics that moved away are dropped from local state and
+     * their alerts handed over (silently: the new owner reports them); the
+     * ones that moved here take over the previous owner's alert state and are
+     * polled from their next tick. Call before start().
+     */
+    public void setShardManager(ShardManager s) {
+        this.shardMask = s.liveNodes() & ~(1L << s.node());  // the others before this node joined
+        this.shard = s;
+        s.onChange(prev -> scheduler.execute(this::shardChanged));
+        scheduler.execute(this::shardChanged);
+    }
+
+    /**
+     * Replay mode: every wall-clock second the wheel is ticked once per virtual
+     * second the replay clock may advance, and each tick waits for its cycles,
+     * so no recorded second is skipped (a replay slower than its speed just
+     * falls behind). Polling stops at the end of the recording. Call before start().
+     */
+    public void setReplay(ReplaySource r) { this.replay = r; }
+
+    /** Completes when the first metric has been evaluated */
+    public CompletableFuture<Void> firstEvaluation() { return firstEvaluation; }
+
+    /** Current (immutable) metric list */
+    public List<Metric> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Atomically swaps in a new metric list (config hot reload). The wheel is
+     * rebuilt on the scheduler thread, so no tick sees a half-updated state.
+     * Retired metrics give their state slot back; their alerts are cleared
+     * unless another live metric still uses the same itemId. All other alert
+     * state is kept.
+     */
+    public void replaceMetrics(List<Metric> next, Collection<Metric> retired) {
+        List<Metric> list = List.copyOf(next);
+        scheduler.execute(() -> {
+            metrics = list;
+            wheel.clear();
+            for (Metric m : list) wheel.schedule(m, firstDelay(m));
+
+            Set<Long> liveIds = new HashSet<>();
+            for (Metric m : list) if (m.getMetricId() != null) liveIds.add(m.stateKey());
+            for (Metric m : retired) {
+                Long id = m.stateKey();
+                if (id != null && !liveIds.contains(id) && m.getSlot() >= 0) AlertManager.clearAlert(m);
+                AlertManager.release(m);
+            }
+        });
+    }
+
+    /**
+     * Compiles the expression rules against the live metric list, on the
+     * scheduler thread after any pending {@link #replaceMetrics}. Alerts of
+     * rules that are gone are cleared.
+     */
+    public void replaceRules(List<Rule> next) {
+        List<Rule> list = next != null ? List.copyOf(next) : List.of();
+        scheduler.execute(() -> {
+            RuleEngine old = rules;
+            RuleEngine engine = RuleEngine.compile(list, metrics);
+            rules = engine;
+            if (old != null) {
+                Set<Long> live = new HashSet<>();
+                for (long id : engine.alertIds()) live.add(id);
+                for (long id : old.alertIds()) if (!live.contains(id)) AlertManager.clearAlert(id);
+            }
+            if (engine.size() > 0) System.out.printf("Rules: %d compiled%n", engine.size());
+        });
+    }
+
+    /**
+     * Drops recovered alerts of ids that no live metric, rule or server claims,
+     * on the scheduler thread after any pending reload. Ids tagged with a
+     * server that still has unresolved metrics are kept: they may belong to one.
+     * Call once the item ids are resolved (startup) and after each reload.
+     */
+    public void dropUnclaimedAlerts() {
+        scheduler.execute(() -> {
+            Set<Long> claimed = new HashSet<>();
+            Set<Long> pending = new HashSet<>();        // server tags with unresolved metrics
+            for (Metric m : metrics) {
+                Long key = m.stateKey();
+                if (key != null) claimed.add(key);
+                else pending.add(Metric.serverTag(m.getServer()));
+            }
+            RuleEngine r = rules;
+            if (r != null) for (long id : r.alertIds()) claimed.add(id);
+            for (String server : sources.keySet()) claimed.add(Metric.serverTag(server));
+            int n = AlertManager.dropUnclaimed(id -> claimed.contains(id)
+                    || (id >= 0 && pending.contains(Metric.tagOf(id))));
+            if (n > 0) System.out.printf("Alert state: %d alert(s) of unconfigured items dropped%n", n);
+        });
+    }
+
+    /* ---------------- scheduling ---------------- */
+
+    /** Wheel tick (scheduler thread): reschedules and polls the metrics due now. */
+    private void tick() {
+        ReplaySource r = replay;
+        if (r != null) {
+            for (long target = r.pacedSec(); r.nowSec() < target; ) {
+                r.advanceTo(r.nowSec() + 1);
+                step();
+                awaitCycles();
+            }
+            return;
+        }
+        step();
+    }
+
+    private void step() {
+        List<Metric> due = wheel.advance();
+        if (due.isEmpty()) return;
+        for (Metric m : due) wheel.schedule(m, nextDelay(m));
+        try {
+            pollBatch(due);
+        } catch (Exception e) {
+            System.err.println("Poll tick error: " + e);
+        }
+    }
+
+    /** Blocks the scheduler thread until every started cycle has completed */
+    private void awaitCycles() {
+        synchronized (openCycles) {
+            while (openCycles.get() > 0) {
+                try {
+                    openCycles.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private int intervalOf(Metric m) {
+        if (pushSweepSec > 0) return pushSweepSec;
+        Integer iv = m.getPollInterval();
+        return iv != null && iv > 0 ? iv : pollSec;
+    }
+
+    /** First run: a stable per-(host, key) offset inside the interval spreads metrics evenly. */
+    private long firstDelay(Metric m) {
+        int h = (m.getHost() + '\u0000' + m.getKey()).hashCode() * 0x9E3779B1;   // golden-ratio mix
+        return 1 + Math.floorMod(h, intervalOf(m));
+    }
+
+    private long nextDelay(Metric m) {
+        long delay = intervalOf(m);
+        Integer j = m.getJitter();
+        if (j != null && j > 0) delay += ThreadLocalRandom.current().nextInt(-j, j + 1);
+        return Math.max(1, delay);
+    }
+
     /* ---------------- main loop ---------------- */
-    private void pollAll() {
-        AtomicInteger success = new AtomicInteger(0);
 
-        LocalDateTime now  = LocalDateTime.now();
+    /** Splits the due metrics by server; each server's share is an independent cycle. */
+    private void pollBatch(List<Metric> batch) {
+        Map<String, List<Metric>> byServer = new HashMap<>();
+        for (Metric m : batch) {
+            if (owned(m)) byServer.computeIfAbsent(m.getServer(), k -> new ArrayList<>()).add(m);
+        }
+        for (Map.Entry<String, List<Metric>> e : byServer.entrySet()) {
+            MetricSource src = sources.get(e.getKey());
+            if (src != null) {
+                pollServer(e.getKey(), src, e.getValue());
+                continue;
+            }
+            long epochSec  = System.currentTimeMillis() / 1000;   // server not declared at startup
+            boolean logNow = LocalDateTime.now().getMinute() % statusEveryMin == 0;
+            for (Metric m : e.getValue()) {
+                SKIPPED.increment();
+                if (logNow) statusLog.publish(epochSec, m, StatusLog.Status.SKIP, Double.NaN, Double.NaN);
+            }
+        }
+    }
+
+    /** One server's share of a tick; times come from its source (a replay runs on its own clock). */
+    private void pollServer(String server, MetricSource source, List<Metric> batch) {
+        long epochSec      = source.nowSec();
+        LocalDateTime now  = LocalDateTime.ofEpochSecond(epochSec, 0,
+                ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(epochSec)));
         String ts          = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         boolean logNow     = (now.getMinute() % statusEveryMin == 0);
 
-        for (Metric m : metrics) {
+        StateStore state      = AlertManager.state();
+        List<Metric> ready    = new ArrayList<>(batch.size());
+        List<Metric> windowed = new ArrayList<>();
+        Set<Long> itemIds     = new HashSet<>();
+        int minInterval       = Integer.MAX_VALUE;
+        for (Metric m : batch) {
             if (m.getMetricId() == null) {
-                if (logNow)
-                    System.out.printf("[%s] [SKIP] %s %s: no itemId%n", ts, m.getHost(), m.getKey());
+                SKIPPED.increment();
+                if (logNow) statusLog.publish(epochSec, m, StatusLog.Status.SKIP, Double.NaN, Double.NaN);
+                continue;
+            }
+            int slot = m.getSlot();
+            if (slot < 0) continue;
+            if (pushSweepSec > 0 && epochSec - state.lastClock(slot) < pushSweepSec) continue;   // pushed recently
+            if (!state.tryBusy(slot)) {                 // previous poll still in flight: coalesce
+                OVERLAPPED.increment();
+                continue;
+            }
+            minInterval = Math.min(minInterval, intervalOf(m));
+            if (m.isWindowed()) {
+                windowed.add(m);
                 continue;
             }
-            final Metric metric = m;
+            state.setWindow(slot, null);                // rule became LAST
+            ready.add(m);
+            itemIds.add(m.getMetricId());
+        }
 
-            pool.submit(() -> {
-                String line = null;
+        int size = ready.size() + windowed.size();
+        if (size == 0) return;
+        Cycle cycle = new Cycle(server, source, size, cycleTimeoutSec > 0 ? cycleTimeoutSec : minInterval,
+                epochSec, ts, logNow);
 
-                try {
-                    ZabbixValue zv = client.getLastValueAndClock(metric.getMetricId());
-                    if (zv == null) {                          // NO DATA
-                        lastValues.remove(metric.getMetricId());
-                        if (!AlertManager.wasAlerted(metric.getMetricId(), AlertManager.AlertType.OLD_VALUE)) {
-                            notifier.sendMessage("OLD_VALUE: " + metric.getHost() + " " + metric.getKey());
-                            AlertManager.setAlert(metric.getMetricId(), AlertManager.AlertType.OLD_VALUE);
-                        }
-                        line = String.format("[%s] [NO DATA] %s %s",
-                                ts, metric.getHost(), metric.getKey());
-                    } else {
-                        success.incrementAndGet();
-                        double v = zv.value;
-                        lastValues.put(metric.getMetricId(), v);
-
-                        /* mark last Zabbix success */
-                        AlertManager.updateLastSuccessRead();
-
-                        /* clear OLD_VALUE */
-                        if (AlertManager.wasAlerted(metric.getMetricId(), AlertManager.AlertType.OLD_VALUE)) {
-                            notifier.sendMessage("Value resumed: " + metric.getHost() + " " + metric.getKey() + " v=" + v);
-                            AlertManager.clearAlert(metric.getMetricId());
-                        }
-
-                        /* ------------- HYSTERESIS ------------- */
-                        if (metric.isMaxType()) {                // MAX
-                            if (v >= metric.getThresholdHigh()
-                                    && !AlertManager.wasAlerted(metric.getMetricId(), AlertManager.AlertType.OVER)) {
-
-                                notifier.sendMessage("ALERT MAX: " + metric.getHost() + " " + metric.getKey() + " " + v);
-                                AlertManager.setAlert(metric.getMetricId(), AlertManager.AlertType.OVER);
-                                line = String.format("[%s] [ALERT MAX] %s %s v=%s >= %s",
-                                        ts, metric.getHost(), metric.getKey(), v, metric.getThresholdHigh());
-                            } else if (v <= metric.getThresholdLow()
-                                    && AlertManager.wasAlerted(metric.getMetricId(), AlertManager.AlertType.OVER)) {
-
-                                notifier.sendMessage("CLEAR MAX: " + metric.getHost() + " " + metric.getKey() + " v=" + v);
-                                AlertManager.clearAlert(metric.getMetricId());
-                                line = String.format("[%s] [CLEAR] %s %s v=%s <= %s",
-                                        ts, metric.getHost(), metric.getKey(), v, metric.getThresholdLow());
-                            }
-                        } else {                                // MIN
-                            if (v <= metric.getThresholdLow()
-                                    && !AlertManager.wasAlerted(metric.getMetricId(), AlertManager.AlertType.UNDER)) {
-
-                                notifier.sendMessage("ALERT MIN: " + metric.getHost() + " " + metric.getKey() + " " + v);
-                                AlertManager.setAlert(metric.getMetricId(), AlertManager.AlertType.UNDER);
-                                line = String.format("[%s] [ALERT MIN] %s %s v=%s <= %s",
-                                        ts, metric.getHost(), metric.getKey(), v, metric.getThresholdLow());
-                            } else if (v >= metric.getThresholdHigh()
-                                    && AlertManager.wasAlerted(metric.getMetricId(), AlertManager.AlertType.UNDER)) {
-
-                                notifier.sendMessage("CLEAR MIN: " + metric.getHost() + " " + metric.getKey() + " v=" + v);
-                                AlertManager.clearAlert(metric.getMetricId());
-                                line = String.format("[%s] [CLEAR] %s %s v=%s >= %s",
-                                        ts, metric.getHost(), metric.getKey(), v, metric.getThresholdHigh());
-                            }
-                        }
-
-                        /* ongoing / OK */
-                        if (line == null && logNow) {
-                            AlertManager.AlertType active = AlertManager.getAlert(metric.getMetricId());
-                            if (active == AlertManager.AlertType.OVER || active == AlertManager.AlertType.UNDER) {
-                                line = String.format("[%s] [ALERT %s] %s %s ongoing, value=%s",
-                                        ts,
-                                        active == AlertManager.AlertType.OVER ? "MAX" : "MIN",
-                                        metric.getHost(), metric.getKey(), v);
-                            } else {
-                                line = String.format("[%s] [OK] %s %s: %s",
-                                        ts, metric.getHost(), metric.getKey(), v);
-                            }
-                        }
-                    }
+        if (!windowed.isEmpty()) pollWindowed(windowed, cycle);
+        if (ready.isEmpty()) return;
 
-                    /* global-down restore */
-                    if (AlertManager.isGlobalDown() && success.get() > 0) {
-                        notifier.sendMessage("Zabbix connection restored (" + metric.getHost() + ")");
-                        AlertManager.clearGlobalDown();
-                    }
+        /* one batched read for everything due in this tick; the scheduler thread does not wait */
+        source.getLastValuesAsync(itemIds).whenComplete((values, err) -> {
+            if (err != null) {
+                System.out.printf("[%s] [ERROR] history.get batch%s (%d items): %s%n",
+                        ts, named(server), itemIds.size(), err.getCause() != null ? err.getCause() : err);
+                for (Metric m : ready) cycle.done(m);
+            } else {
+                for (Metric m : ready) evaluateLater(cycle, m, x -> values.get(x.getMetricId()));
+            }
+        });
+    }
 
-                } catch (Exception e) {
-                    line = String.format("[%s] [ERROR] %s %s: %s",
-                            ts, metric.getHost(), metric.getKey(), e.getMessage());
-                }
-                if (logNow && line != null) System.out.println(line);
-            });
+    /**
+     * Incremental read for metrics with a windowed rule: every point since the
+     * newest one already in the metric's {@link RuleWindow} (at most one window
+     * back) is pushed into the window as it is parsed, then each metric is
+     * evaluated once on the resulting rule value. Metrics are read in groups
+     * by that start, so an empty window does not make the metrics with recent
+     * points re-read a whole window.
+     */
+    private void pollWindowed(List<Metric> batch, Cycle cycle) {
+        long nowSec = cycle.source.nowSec();
+        /* key = time_from of the group */
+        Map<Long, Map<Long, List<Metric>>> groups = new TreeMap<>();
+        for (Metric m : batch) {
+            RuleWindow w = windowOf(m, m.getSlot());
+            long from;
+            synchronized (w) {
+                from = Math.max(w.lastClock() + 1, nowSec - w.spanSec());
+            }
+            from -= Math.floorMod(from, SINCE_STEP_SEC);
+            groups.computeIfAbsent(from, k -> new HashMap<>())
+                  .computeIfAbsent(m.getMetricId(), k -> new ArrayList<>(1)).add(m);
         }
+        groups.forEach((timeFrom, byItem) -> readWindowed(byItem, timeFrom, cycle));
+    }
 
-        /* global Zabbix-down check */
-        scheduler.schedule(() -> {
-            if (success.get() == 0 && !AlertManager.isGlobalDown() && AlertManager.shouldAlertZabbixDown()) {
+    /** One history.get since timeFrom for a group of windowed metrics, then their evaluation */
+    private void readWindowed(Map<Long, List<Metric>> byItem, long timeFrom, Cycle cycle) {
+        cycle.source.readHistorySinceAsync(byItem.keySet(), timeFrom, (itemId, clock, value) -> {
+            List<Metric> ms = byItem.get(itemId);
+            if (ms != null) for (Metric m : ms) ingest(m, clock, value);
+        }).whenComplete((x, err) -> {
+            if (err != null) {
+                System.out.printf("[%s] [ERROR] history.get since %d%s (%d items): %s%n", cycle.ts, timeFrom,
+                        named(cycle.server), byItem.size(), err.getCause() != null ? err.getCause() : err);
+                for (List<Metric> ms : byItem.values()) for (Metric m : ms) cycle.done(m);
+            } else {
+                long nowSec = cycle.source.nowSec();
+                for (List<Metric> ms : byItem.values())
+                    for (Metric m : ms) evaluateLater(cycle, m, y -> windowValue(y, nowSec));
+            }
+        });
+    }
+
+    /** The metric's rule window, (re)built when missing or made for other rule settings. */
+    private static RuleWindow windowOf(Metric m, int slot) {
+        StateStore state = AlertManager.state();
+        RuleWindow w = state.window(slot);
+        if (w == null || !w.fits(m)) {
+            w = new RuleWindow(m);
+            AlertManager.AlertType active = AlertManager.getAlert(m);
+            if (active == AlertManager.AlertType.OVER || active == AlertManager.AlertType.UNDER)
+                w.target = active;
+            state.setWindow(slot, w);
+        }
+        return w;
+    }
+
+    /* ---------------- push ingestion ---------------- */
+
+    /**
+     * Takes one pushed value (see {@link PushServer}). Windowed metrics ingest
+     * every point; the others only keep the newest value in their state slot,
+     * so a burst costs no memory beyond the slot. Evaluate with {@link #evaluatePushed}.
+     * @return false when the metric is gone or the value is older than the one held
+     */
+    public boolean accept(Metric m, long clock, double value) {
+        int slot = m.getSlot();
+        if (slot < 0 || m.isRetired() || m.getMetricId() == null) return false;
+        if (m.isWindowed()) {
+            windowOf(m, slot);
+            return ingest(m, clock, value);
+        }
+        return AlertManager.state().recordIfNewer(slot, value, clock);
+    }
+
+    /**
+     * Evaluates metrics after {@link #accept} as one cycle per server, through
+     * the same hysteresis as polled values. A metric whose previous evaluation is
+     * still running is skipped; its newest value is evaluated with the next push or sweep.
+     */
+    public void evaluatePushed(Collection<Metric> touched) {
+        long epochSec  = System.currentTimeMillis() / 1000;
+        StateStore state = AlertManager.state();
+        Map<String, List<Metric>> byServer = new HashMap<>();
+        for (Metric m : touched) {
+            int slot = m.getSlot();
+            if (slot < 0 || !owned(m)) continue;
+            if (state.tryBusy(slot)) byServer.computeIfAbsent(m.getServer(), k -> new ArrayList<>()).add(m);
+            else OVERLAPPED.increment();
+        }
+        if (byServer.isEmpty()) return;
+
+        LocalDateTime now = LocalDateTime.ofEpochSecond(epochSec, 0,
+                ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochSecond(epochSec)));
+        String ts = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        for (Map.Entry<String, List<Metric>> e : byServer.entrySet()) {
+            List<Metric> ready = e.getValue();
+            MetricSource c = sources.getOrDefault(e.getKey(), source);
+            Cycle cycle = new Cycle(e.getKey(), c, ready.size(), cycleTimeoutSec > 0 ? cycleTimeoutSec : pollSec,
+                    epochSec, ts, now.getMinute() % statusEveryMin == 0);
+            for (Metric m : ready) evaluateLater(cycle, m, x -> x.isWindowed() ? windowValue(x, epochSec) : heldValue(x));
+        }
+    }
+
+    /** Newest value held in the metric's slot, null when none */
+    private static ZabbixValue heldValue(Metric m) {
+        int slot = m.getSlot();
+        if (slot < 0) return null;
+        StateStore state = AlertManager.state();
+        double v = state.lastValue(slot);
+        return Double.isNaN(v) ? null : new ZabbixValue(v, state.lastClock(slot));
+    }
+
+    /**
+     * Queues the metric's evaluation. It is dropped when the queue is full and
+     * cancelled when it only starts after the cycle's deadline; either way the
+     * metric is accounted to its cycle.
+     */
+    private void evaluateLater(Cycle cycle, Metric m, Function<Metric, ZabbixValue> valueOf) {
+        boolean queued = submit(() -> {
+            try {
+                if (cycle.expired()) DROPPED_LATE.increment();
+                else evaluate(m, valueOf.apply(m), cycle);
+            } finally {
+                cycle.done(m);
+            }
+        });
+        if (!queued) {
+            DROPPED_FULL.increment();
+            cycle.done(m);
+        }
+    }
+
+    /**
+     * One new point: O(1) window update, then one hysteresis step on the rule
+     * value. Raising also needs sustainedSamples consecutive breaching points.
+     * @return false when the point was dropped (no window, or not newer)
+     */
+    private static boolean ingest(Metric m, long clock, double value) {
+        int slot = m.getSlot();
+        if (slot < 0) return false;
+        StateStore state = AlertManager.state();
+        RuleWindow w = state.window(slot);
+        if (w == null) return false;
+        synchronized (w) {
+            if (clock <= w.lastClock()) return false;   // seen in an earlier cycle
+            double r = w.push(clock, value);
+            state.recordValue(slot, value, clock);
+            if (Double.isNaN(r)) return true;
+            boolean breach = m.isMaxType() ? r >= m.getThresholdHigh() : r <= m.getThresholdLow();
+            int run = w.breachRun(breach);
+            AlertManager.AlertType next = hysteresis(m, r, w.target);
+            if (next == null || run >= m.getSustainedSamples()) w.target = next;
+            return true;
+        }
+    }
+
+    /**
+     * Rule value and newest clock of a windowed metric; null (no data) when
+     * its newest point is older than the rule's span or two poll intervals,
+     * whichever is longer, so a metric polled less often than the window does
+     * not drop to NO DATA between polls.
+     */
+    private ZabbixValue windowValue(Metric m, long nowSec) {
+        int slot = m.getSlot();
+        RuleWindow w = slot < 0 ? null : AlertManager.state().window(slot);
+        if (w == null) return null;
+        synchronized (w) {
+            long clock = w.lastClock();
+            long staleBefore = nowSec - Math.max(w.spanSec(), 2L * intervalOf(m));
+            return clock == 0 || clock < staleBefore ? null : new ZabbixValue(w.value(), clock);
+        }
+    }
+
+    /* ---------------- cycles ---------------- */
+
+    /**
+     * The metrics of one server due in one tick. Every metric taken into a cycle is accounted
+     * for exactly once (evaluated, dropped, or failed with its batch read); the
+     * last one completes the cycle, which then makes the global-down decision
+     * on the cycle's own success count. A cycle still open at its deadline is
+     * counted as timed out and its evaluations not started yet are cancelled.
+     */
+    private final class Cycle {
+        private static final int OPEN = 0, COMPLETED = 1, TIMED_OUT = 2;
+
+        final String server;
+        final MetricSource source;
+        final long epochSec;
+        final String ts;
+        final boolean logNow;
+        final AtomicInteger success = new AtomicInteger();
+        private final long started = System.nanoTime();
+        private final long deadline;
+        private final int size;
+        private final AtomicInteger pending;
+        private final AtomicInteger outcome = new AtomicInteger(OPEN);
+        /** Alert transitions of this cycle, sent by the correlator on completion */
+        private final Queue<AlertCorrelator.Transition> transitions = new ConcurrentLinkedQueue<>();
+
+        Cycle(String server, MetricSource source, int size, int timeoutSec, long epochSec, String ts, boolean logNow) {
+            this.server = server;
+            this.source = source;
+            this.epochSec = epochSec;
+            this.ts = ts;
+            this.logNow = logNow;
+            this.size = size;
+            this.pending = new AtomicInteger(size);
+            this.deadline = started + TimeUnit.SECONDS.toNanos(timeoutSec);
+            openCycles.incrementAndGet();
+            CYCLES_STARTED.increment();
+            scheduler.schedule(this::expire, timeoutSec, TimeUnit.SECONDS);
+        }
+
+        boolean expired() {
+            return outcome.get() == TIMED_OUT || System.nanoTime() - deadline >= 0;
+        }
+
+        /** One metric of the cycle accounted for; frees it for its next poll. */
+        void done(Metric m) {
+            int slot = m.getSlot();
+            if (slot >= 0) AlertManager.state().clearBusy(slot);
+            if (pending.decrementAndGet() == 0) complete();
+        }
+
+        void transition(AlertCorrelator.Kind kind, Metric m, double v) {
+            transitions.add(new AlertCorrelator.Transition(kind, m, v));
+        }
+
+        private void expire() {
+            int left = pending.get();
+            if (left > 0 && outcome.compareAndSet(OPEN, TIMED_OUT)) {
+                CYCLES_TIMED_OUT.increment();
+                System.out.printf("[%s] [TIMEOUT] poll cycle%s of %s: %d of %d metric(s) still pending%n",
+                        LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
+                        named(server), ts, left, size);
+            }
+        }
+
+        private void complete() {
+            if (outcome.compareAndSet(OPEN, COMPLETED)) CYCLES_COMPLETED.increment();
+            RuleEngine r = rules;
+            boolean leader = isLeader();
+            if (r != null && leader) r.evaluateDirty(transitions);
+            correlator.flush(transitions);
+            CYCLE.recordSince(started);
+            if (leader && success.get() == 0 && !AlertManager.isGlobalDown(server) && AlertManager.shouldAlertZabbixDown(server)) {
                 String t = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-                System.out.printf("[%s] [ALERT] ZABBIX DOWN%n", t);
-                try { notifier.sendMessage("ZABBIX DOWN: no data"); } catch (Exception ignored) {}
-                AlertManager.setGlobalDown();
+                System.out.printf("[%s] [ALERT] ZABBIX DOWN%s%n", t, named(server));
+                try { notifier.sendMessage("ZABBIX DOWN" + named(server) + ": no data"); } catch (Exception ignored) {}
+                AlertManager.setGlobalDown(server);
             }
-        }, 5, TimeUnit.SECONDS);
+            if (openCycles.decrementAndGet() == 0) {
+                synchronized (openCycles) {
+                    openCycles.notifyAll();
+                }
+            }
+        }
+    }
+
+    /* ---------------- sharding ---------------- */
+
+    /** True when this node polls the metric: its partition, or the leader for rule inputs */
+    private boolean owned(Metric m) {
+        ShardManager s = shard;
+        return s == null || ownerOf(m, shardMask) == s.node();
+    }
+
+    private boolean isLeader() {
+        ShardManager s = shard;
+        return s == null || ShardManager.leader(shardMask) == s.node();
+    }
+
+    /**
+     * Live nodes changed (scheduler thread): the metrics that moved away hand
+     * their alerts over and forget their state; the ones that moved here take
+     * over the previous owner's published alerts (see {@link ShardManager}).
+     * Polling keeps the previous ownership until all of that is done.
+     */
+    private void shardChanged() {
+        ShardManager s = shard;
+        long prev = shardMask;                          // without this node at startup
+        long next = s.liveNodes();
+        if (next == prev) return;
+        boolean leader = ShardManager.leader(next) == s.node();
+        StateStore state = AlertManager.state();
+        List<Metric> list = metrics;
+        Map<Integer, Map<Long, AlertManager.AlertType>> published = new HashMap<>();   // previous owner → its alerts
+        Map<Long, AlertManager.AlertType> given = new HashMap<>();
+        List<Long> taken = new ArrayList<>();
+        int mine = 0, inherited = 0;
+        for (Metric m : list) {
+            int slot = m.getSlot();
+            boolean owned = ownerOf(m, next) == s.node();
+            if (owned) mine++;
+            if (slot < 0 || m.getMetricId() == null) continue;
+            Long key = m.stateKey();
+            if (owned) {
+                int from = prev == 0 ? s.node() : ownerOf(m, prev);
+                if (from == s.node()) continue;
+                if (takeOver(key, published.computeIfAbsent(from, s::publishedAlerts))) inherited++;
+                taken.add(key);
+            } else {
+                AlertManager.AlertType t = AlertManager.getAlert(m);
+                if (t != null) {
+                    given.put(key, t);
+                    AlertManager.clearAlert(m);
+                }
+            }
+            state.clearValue(slot);
+            state.setWindow(slot, null);
+        }
+
+        /* rule alerts and ZABBIX DOWN go with the leadership */
+        List<Long> leaderKeys = new ArrayList<>();
+        RuleEngine r = rules;
+        if (r != null) for (long id : r.alertIds()) leaderKeys.add(id);
+        for (String server : sources.keySet()) leaderKeys.add(Metric.serverTag(server));
+        int prevLeader = prev == 0 ? s.node() : ShardManager.leader(prev);
+        for (Long key : leaderKeys) {
+            if (!leader) {
+                AlertManager.AlertType t = AlertManager.getAlert(key);
+                if (t != null) {
+                    given.put(key, t);
+                    AlertManager.clearAlert(key);
+                }
+            } else if (prevLeader != s.node()) {
+                if (takeOver(key, published.computeIfAbsent(prevLeader, s::publishedAlerts))) inherited++;
+                taken.add(key);
+            }
+        }
+        shardMask = next;                               // polling follows the new ownership from here
+        s.handOver(given, taken);
+        System.out.printf("Shard: %d of %d metric(s) owned%s, %d alert(s) handed over, %d taken over%n",
+                mine, list.size(), leader ? ", leader" : "", given.size(), inherited);
+    }
+
+    /** Owner of the metric among the given live nodes (rule inputs: the leader) */
+    private int ownerOf(Metric m, long liveMask) {
+        RuleEngine r = rules;
+        return r != null && r.isInput(m.getSlot()) ? ShardManager.leader(liveMask) : shard.owner(m, liveMask);
+    }
+
+    /**
+     * Sets the alert of the key to what the previous owner published; null
+     * (unreadable) keeps the local one.
+     * @return true when an alert was taken over
+     */
+    private static boolean takeOver(long key, Map<Long, AlertManager.AlertType> published) {
+        if (published == null) return false;
+        AlertManager.AlertType t = published.get(key);
+        if (t == null) AlertManager.clearAlert(key);
+        else AlertManager.setAlert(key, t);
+        return t != null;
+    }
+
+    /* ---------------- per-metric evaluation ---------------- */
+
+    /**
+     * Hysteresis step: the alert state after value v, given the active one.
+     * MAX raises OVER at v >= high and clears at v <= low, MIN the mirror image.
+     */
+    static AlertManager.AlertType hysteresis(Metric m, double v, AlertManager.AlertType active) {
+        return hysteresis(m.isMaxType(), m.getThresholdHigh(), m.getThresholdLow(), v, active);
+    }
+
+    static AlertManager.AlertType hysteresis(boolean max, double high, double low, double v,
+                                             AlertManager.AlertType active) {
+        if (max) {
+            if (v >= high && active != AlertManager.AlertType.OVER) return AlertManager.AlertType.OVER;
+            if (v <= low  && active == AlertManager.AlertType.OVER) return null;
+        } else {
+            if (v <= low  && active != AlertManager.AlertType.UNDER) return AlertManager.AlertType.UNDER;
+            if (v >= high && active == AlertManager.AlertType.UNDER) return null;
+        }
+        return active;
+    }
+
+    private void evaluate(Metric metric, ZabbixValue zv, Cycle cycle) {
+        if (metric.isRetired()) return;                 // removed by a config reload
+        int slot = metric.getSlot();
+        if (slot < 0) return;
+        StateStore state = AlertManager.state();
+        StatusLog.Status status = null;
+        double v = Double.NaN, threshold = Double.NaN;
+        boolean transition = false;                     // always logged: the Telegram digest omits per-item detail
+
+        try {
+            AlertManager.AlertType active = AlertManager.getAlert(metric);   // one state read per evaluation
+
+            if (zv == null) {                          // NO DATA
+                state.clearValue(slot);
+                if (active != AlertManager.AlertType.OLD_VALUE) {
+                    cycle.transition(AlertCorrelator.Kind.OLD_VALUE, metric, Double.NaN);
+                    transition = true;
+                    AlertManager.setAlert(metric, AlertManager.AlertType.OLD_VALUE);
+                }
+                status = StatusLog.Status.NO_DATA;
+            } else {
+                cycle.success.incrementAndGet();
+                v = zv.value;
+                RuleWindow w = metric.isWindowed() ? state.window(slot) : null;
+                if (w == null) state.recordValue(slot, v, zv.clock);   // windowed: raw points recorded on ingest
+
+                /* mark last Zabbix success */
+                AlertManager.updateLastSuccessRead(cycle.server);
+
+                /* clear OLD_VALUE */
+                if (active == AlertManager.AlertType.OLD_VALUE) {
+                    cycle.transition(AlertCorrelator.Kind.RESUMED, metric, v);
+                    transition = true;
+                    AlertManager.clearAlert(metric);
+                    active = null;
+                }
+
+                /* ------------- HYSTERESIS ------------- */
+                AlertManager.AlertType next;
+                if (w != null) {
+                    synchronized (w) { next = w.target; }
+                } else {
+                    next = hysteresis(metric, v, active);
+                }
+                if (next != active) {
+                    transition = true;
+                    if (next == AlertManager.AlertType.OVER) {
+                        cycle.transition(AlertCorrelator.Kind.ALERT_MAX, metric, v);
+                        AlertManager.setAlert(metric, next);
+                        status = StatusLog.Status.ALERT_MAX;
+                        threshold = metric.getThresholdHigh();
+                    } else if (next == AlertManager.AlertType.UNDER) {
+                        cycle.transition(AlertCorrelator.Kind.ALERT_MIN, metric, v);
+                        AlertManager.setAlert(metric, next);
+                        status = StatusLog.Status.ALERT_MIN;
+                        threshold = metric.getThresholdLow();
+                    } else if (active == AlertManager.AlertType.OVER) {
+                        cycle.transition(AlertCorrelator.Kind.CLEAR_MAX, metric, v);
+                        AlertManager.clearAlert(metric);
+                        status = StatusLog.Status.CLEAR_MAX;
+                        threshold = metric.getThresholdLow();
+                    } else {
+                        cycle.transition(AlertCorrelator.Kind.CLEAR_MIN, metric, v);
+                        AlertManager.clearAlert(metric);
+                        status = StatusLog.Status.CLEAR_MIN;
+                        threshold = metric.getThresholdHigh();
+                    }
+                }
+
+                /* ongoing / OK */
+                else if (active == AlertManager.AlertType.OVER) {
+                    status = StatusLog.Status.ONGOING_MAX;
+                    threshold = metric.getThresholdHigh();
+                } else if (active == AlertManager.AlertType.UNDER) {
+                    status = StatusLog.Status.ONGOING_MIN;
+                    threshold = metric.getThresholdLow();
+                } else {
+                    status = StatusLog.Status.OK;
+                }
+            }
+
+            /* global-down restore */
+            if (cycle.success.get() > 0 && AlertManager.isGlobalDown(cycle.server)) {
+                notifier.sendMessage("Zabbix" + named(cycle.server) + " connection restored (" + metric.getHost() + ")");
+                AlertManager.clearGlobalDown(cycle.server);
+            }
+
+        } catch (Exception e) {
+            if (cycle.logNow) statusLog.error(cycle.epochSec, metric, e.getMessage());
+            status = null;
+        }
+        if ((cycle.logNow || transition) && status != null) statusLog.publish(cycle.epochSec, metric, status, v, threshold);
+        RuleEngine r = rules;
+        if (r != null) r.changed(slot);
+        EVALUATED.increment();
+        if (!firstEvaluation.isDone()) firstEvaluation.complete(null);
+    }
+
+    /** " name" for a named server, "" for the default one (message suffix) */
+    private static String named(String server) {
+        return server.isEmpty() ? "" : " " + server;
     }
 
     /** DTO from history.get */
@@ -0,0 +1,314 @@
+package alerter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import config.Metric;
+import stats.Registry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PushServer
+ * ----------
+ * Embedded HTTP endpoint (POST /push) through which Zabbix sends item values
+ * instead of being polled. The body is one JSON value object, an array of
+ * them, or several of either back to back (NDJSON, as Zabbix connectors
+ * stream them). A value object is matched to metrics by
+ *   itemid                        (item.get / connector "itemid"), or
+ *   host + key                    (webhook media type parameters; key_ also accepted,
+ *                                  host may be the connector's {"host": …} object)
+ * and carries value (number or numeric string) and clock (epoch s, default now).
+ * With several Zabbix servers, "server" names the one the value belongs to
+ * (absent = the default server).
+ * Webhook parameters arrive as strings, so every field accepts both.
+ *
+ * Values go straight into the metric state ({@link MetricPoller#accept}) while
+ * the body is streamed; the touched metrics are then evaluated once per
+ * request. Memory stays bounded under bursts: bodies are capped at maxBodyBytes,
+ * a few handler threads take requests from a short queue, and when that is
+ * full the accepting thread handles the request itself, so it stops accepting.
+ *
+ * Try it: curl -d '{"host":"srv1","key":"system.cpu.load","value":3.2}' http://127.0.0.1:8090/push
+ */
+public final class PushServer {
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 8 << 20;
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final String VALUES_NAME = "zabbix_alerter_push_values_total";
+    private static final String VALUES_HELP = "Pushed values by result (accepted, unknown metric, invalid or stale)";
+    private static final LongAdder ACCEPTED = Registry.counter(VALUES_NAME, VALUES_HELP, "result=\"accepted\"");
+    private static final LongAdder UNKNOWN  = Registry.counter(VALUES_NAME, VALUES_HELP, "result=\"unknown\"");
+    private static final LongAdder INVALID  = Registry.counter(VALUES_NAME, VALUES_HELP, "result=\"invalid\"");
+    private static final LongAdder REQUESTS = Registry.counter("zabbix_alerter_push_requests_total",
+            "Push requests handled", "");
+
+    /** Min age (ms) of the lookup index before a miss rebuilds it (itemIds resolve late) */
+    private static final long INDEX_REFRESH_MS = 10_000;
+
+    private final HttpServer server;
+    private final MetricPoller poller;
+    private final int maxBodyBytes;
+    private volatile Index index = new Index(List.of());
+
+    public PushServer(String bindAddress, int port, MetricPoller poller, int threads, int maxBodyBytes)
+            throws IOException {
+        this.poller = poller;
+        this.maxBodyBytes = maxBodyBytes;
+        this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        this.server.createContext("/push", this::handle);
+        AtomicInteger n = new AtomicInteger();
+        int t = Math.max(1, threads);
+        this.server.setExecutor(new ThreadPoolExecutor(t, t, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(4 * t),
+                r -> {
+                    Thread th = new Thread(r, "push-http-" + n.incrementAndGet());
+                    th.setDaemon(true);
+                    return th;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+    }
+
+    public void start() {
+        server.start();
+        System.out.printf("Push endpoint: http://%s:%d/push%n",
+                server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /** Bound port (useful with port 0) */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            REQUESTS.increment();
+            Counts counts = new Counts();
+            Set<Metric> touched = new LinkedHashSet<>();
+            int status = 200;
+            try (InputStream in = new Capped(ex.getRequestBody(), maxBodyBytes)) {
+                read(in, touched, counts);
+            } catch (BodyTooLarge e) {
+                status = 413;
+            } catch (JsonParseException e) {
+                status = 400;
+            }
+            if (!touched.isEmpty()) poller.evaluatePushed(touched);   // values read so far still count
+
+            byte[] body = String.format("{\"accepted\":%d,\"unknown\":%d,\"invalid\":%d}%n",
+                    counts.accepted, counts.unknown, counts.invalid).getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(status, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /* ---------------- parsing ---------------- */
+
+    private static final class Counts { int accepted, unknown, invalid; }
+
+    /** Streams every value object of the body into the poller. */
+    private void read(InputStream in, Set<Metric> touched, Counts counts) throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        try (JsonParser p = FACTORY.createParser(in)) {
+            JsonToken t;
+            while ((t = p.nextToken()) != null) {
+                if (t == JsonToken.START_ARRAY) {
+                    while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+                        if (t == JsonToken.START_OBJECT) readValue(p, now, touched, counts);
+                        else p.skipChildren();
+                    }
+                } else if (t == JsonToken.START_OBJECT) {
+                    readValue(p, now, touched, counts);
+                }
+            }
+        }
+    }
+
+    private void readValue(JsonParser p, long now, Set<Metric> touched, Counts counts) throws IOException {
+        long itemId = 0, clock = now;
+        String host = null, key = null, server = "";
+        double value = Double.NaN;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String f = p.currentName();
+            JsonToken t = p.nextToken();
+            switch (f) {
+                case "itemid": itemId = integer(p);                      break;
+                case "clock":  clock  = integer(p);                      break;
+                case "value":  value  = number(p);                       break;
+                case "key":
+                case "key_":   key    = t == JsonToken.VALUE_NULL ? null : p.getText(); break;
+                case "host":   host   = t == JsonToken.START_OBJECT ? hostName(p) : p.getText(); break;
+                case "server": server = t == JsonToken.VALUE_STRING ? p.getText().trim() : ""; break;
+                default:       p.skipChildren();
+            }
+        }
+        if (Double.isNaN(value) || clock <= 0) {
+            counts.invalid++;
+            INVALID.increment();
+            return;
+        }
+        List<Metric> ms = lookup(itemId, server, host, key);
+        if (ms.isEmpty()) {
+            counts.unknown++;
+            UNKNOWN.increment();
+            return;
+        }
+        boolean any = false;
+        for (Metric m : ms) {
+            if (poller.accept(m, clock, value)) {
+                touched.add(m);
+                any = true;
+            }
+        }
+        if (any) {
+            counts.accepted++;
+            ACCEPTED.increment();
+        } else {
+            counts.invalid++;
+            INVALID.increment();
+        }
+    }
+
+    /** Number or numeric string ("12.5", "0,5"); NaN otherwise */
+    private static double number(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NUMBER_INT || t == JsonToken.VALUE_NUMBER_FLOAT) return p.getDoubleValue();
+        if (t == JsonToken.VALUE_STRING) {
+            try {
+                return Double.parseDouble(p.getText().trim().replace(',', '.'));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        p.skipChildren();
+        return Double.NaN;
+    }
+
+    /** Integer or integer string; 0 otherwise */
+    private static long integer(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NUMBER_INT) return p.getLongValue();
+        if (t == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(p.getText().trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        p.skipChildren();
+        return 0;
+    }
+
+    /** Connector format: "host": {"host": "technical name", "name": "visible name"} */
+    private static String hostName(JsonParser p) throws IOException {
+        String host = null, name = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String f = p.currentName();
+            p.nextToken();
+            if ("host".equals(f)) host = p.getText();
+            else if ("name".equals(f)) name = p.getText();
+            else p.skipChildren();
+        }
+        return host != null ? host : name;
+    }
+
+    /* ---------------- metric lookup ---------------- */
+
+    private List<Metric> lookup(long itemId, String server, String host, String key) {
+        List<Metric> live = poller.getMetrics();
+        Index ix = index;
+        if (ix.source != live) index = ix = new Index(live);
+        List<Metric> ms = ix.find(itemId, server, host, key);
+        if (ms.isEmpty() && itemId != 0 && System.currentTimeMillis() - ix.builtAt > INDEX_REFRESH_MS) {
+            index = ix = new Index(live);               // itemIds resolved since the last build
+            ms = ix.find(itemId, server, host, key);
+        }
+        return ms;
+    }
+
+    /** Immutable state key and (server, host, key) lookup over one metric list */
+    private static final class Index {
+        final List<Metric> source;
+        final long builtAt = System.currentTimeMillis();
+        final Map<Long, List<Metric>> byItem = new HashMap<>();
+        final Map<String, List<Metric>> byName = new HashMap<>();
+
+        Index(List<Metric> source) {
+            this.source = source;
+            for (Metric m : source) {
+                if (m.getMetricId() != null)
+                    byItem.computeIfAbsent(m.stateKey(), k -> new ArrayList<>(1)).add(m);
+                byName.computeIfAbsent(m.identity(), k -> new ArrayList<>(1)).add(m);
+            }
+        }
+
+        List<Metric> find(long itemId, String server, String host, String key) {
+            List<Metric> ms = itemId != 0 ? byItem.get(itemId | Metric.serverTag(server)) : null;
+            if (ms == null && host != null && key != null) ms = byName.get(Metric.identity(server, host, key));
+            return ms != null ? ms : List.of();
+        }
+    }
+
+    /* ---------------- body size cap ---------------- */
+
+    private static final class BodyTooLarge extends IOException {
+        private static final long serialVersionUID = 1L;
+        BodyTooLarge() { super("push body too large"); }
+    }
+
+    private static final class Capped extends FilterInputStream {
+        private long left;
+
+        Capped(InputStream in, long max) {
+            super(in);
+            this.left = max;
+        }
+
+        @Override public int read() throws IOException {
+            if (left <= 0) return overflow();
+            int b = super.read();
+            if (b >= 0) left--;
+            return b;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return overflow();
+            int n = super.read(b, off, (int) Math.min(len, left));
+            if (n > 0) left -= n;
+            return n;
+        }
+
+        /** At the cap: fine if the body ends here, too large otherwise */
+        private int overflow() throws IOException {
+            if (super.read() < 0) return -1;
+            throw new BodyTooLarge();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package alerter;
+
+import config.Metric;
+import config.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Pattern;
+
+/**
+ * RuleEngine
+ * ----------
+ * The compiled {@link Rule}s of one configuration. Every distinct metric a
+ * rule references is one snapshot input; a slot → rules index marks the
+ * dependent rules dirty whenever the poller evaluates a metric
+ * ({@link #changed}). When a cycle completes, {@link #evaluateDirty} copies the
+ * inputs of the dirty rules from the {@link StateStore} into the snapshot once,
+ * then evaluates only those rules and applies hysteresis to their values.
+ *
+ * Rule alerts live in {@link AlertManager} under a synthetic negative id
+ * derived from the rule name, so the journal keeps them across restarts and
+ * reloads. An engine is immutable apart from its dirty flags and snapshot;
+ * a config reload compiles a new one.
+ */
+final class RuleEngine {
+
+    private final String[] names;
+    private final Rule[] rules;
+    private final Expression[] exprs;
+    private final long[] alertIds;
+    private final int[][] inputsOf;         // rule → snapshot inputs
+    private final int[] inputSlot;          // snapshot input → state slot
+    private final int[][] rulesBySlot;      // state slot → dependent rules
+
+    private final AtomicIntegerArray dirty;
+    private final double[] snapshot;
+    private final int[] filledIn;           // pass that last filled each input
+    private int pass;
+
+    private RuleEngine(List<Rule> ok, List<Expression> compiled, List<int[]> inputs, List<Integer> slots) {
+        int n = ok.size();
+        this.rules = ok.toArray(new Rule[0]);
+        this.exprs = compiled.toArray(new Expression[0]);
+        this.names = new String[n];
+        this.alertIds = new long[n];
+        this.inputsOf = inputs.toArray(new int[0][]);
+        this.inputSlot = new int[slots.size()];
+        for (int i = 0; i < inputSlot.length; i++) inputSlot[i] = slots.get(i);
+        for (int r = 0; r < n; r++) {
+            names[r] = rules[r].getName();
+            alertIds[r] = alertId(names[r]);
+        }
+
+        int maxSlot = -1;
+        for (int s : inputSlot) maxSlot = Math.max(maxSlot, s);
+        List<List<Integer>> deps = new ArrayList<>();
+        for (int s = 0; s <= maxSlot; s++) deps.add(new ArrayList<>());
+        for (int r = 0; r < n; r++) for (int i : inputsOf[r]) deps.get(inputSlot[i]).add(r);
+        this.rulesBySlot = new int[maxSlot + 1][];
+        for (int s = 0; s <= maxSlot; s++) {
+            List<Integer> d = deps.get(s);
+            rulesBySlot[s] = d.isEmpty() ? null : d.stream().distinct().mapToInt(Integer::intValue).toArray();
+        }
+
+        this.dirty = new AtomicIntegerArray(n);
+        this.snapshot = new double[inputSlot.length];
+        this.filledIn = new int[inputSlot.length];
+        for (int r = 0; r < n; r++) dirty.set(r, 1);          // first pass evaluates everything
+    }
+
+    /**
+     * Compiles the rules against the metric list. A rule that does not compile
+     * is reported and skipped; the others still run.
+     */
+    static RuleEngine compile(List<Rule> rules, List<Metric> metrics) {
+        List<Rule> ok = new ArrayList<>();
+        List<Expression> compiled = new ArrayList<>();
+        List<int[]> inputsOf = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        Map<Integer, Integer> inputOfSlot = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+
+        for (Rule rule : rules) {
+            String name = rule.getName();
+            if (name == null || name.isBlank() || rule.getExpr() == null) {
+                System.err.println("Rule skipped: name and expr are required");
+                continue;
+            }
+            if (!seen.add(name)) {
+                System.err.printf("Rule '%s' skipped: duplicate name%n", name);
+                continue;
+            }
+            Set<Integer> used = new LinkedHashSet<>();
+            try {
+                Expression e = Expression.compile(rule.getExpr(), (hostGlob, keyGlob) -> {
+                    int colon = hostGlob.indexOf(':');      // "server:host", plain host = default server
+                    String server = colon < 0 ? "" : hostGlob.substring(0, colon).trim();
+                    Pattern h = glob(hostGlob.substring(colon + 1)), k = glob(keyGlob);
+                    List<Integer> idx = new ArrayList<>();
+                    for (Metric m : metrics) {
+                        if (m.getSlot() < 0 || !m.getServer().equals(server)
+                                || !h.matcher(m.getHost()).matches() || !k.matcher(m.getKey()).matches())
+                            continue;
+                        int in = inputOfSlot.computeIfAbsent(m.getSlot(), s -> {
+                            slots.add(s);
+                            return slots.size() - 1;
+                        });
+                        if (!idx.contains(in)) idx.add(in);
+                        used.add(in);
+                    }
+                    return idx.stream().mapToInt(Integer::intValue).toArray();
+                });
+                ok.add(rule);
+                compiled.add(e);
+                inputsOf.add(used.stream().mapToInt(Integer::intValue).toArray());
+            } catch (IllegalArgumentException ex) {
+                System.err.printf("Rule '%s' skipped: %s%n", name, ex.getMessage());
+            }
+        }
+        return new RuleEngine(ok, compiled, inputsOf, slots);
+    }
+
+    int size() { return rules.length; }
+
+    /** Alert ids of these rules (to clear the alerts of rules a reload removed) */
+    long[] alertIds() { return alertIds.clone(); }
+
+    /** True when a rule reads the metric in this slot */
+    boolean isInput(int slot) {
+        return slot >= 0 && slot < rulesBySlot.length && rulesBySlot[slot] != null;
+    }
+
+    /** Called after a metric in this slot was evaluated: marks its dependent rules dirty. */
+    void changed(int slot) {
+        if (slot < 0 || slot >= rulesBySlot.length) return;
+        int[] rs = rulesBySlot[slot];
+        if (rs != null) for (int r : rs) dirty.lazySet(r, 1);
+    }
+
+    /**
+     * Evaluates the rules whose inputs changed since the last pass; their alert
+     * transitions are added to the cycle's, for the {@link AlertCorrelator}.
+     */
+    synchronized void evaluateDirty(Collection<AlertCorrelator.Transition> transitions) {
+        StateStore state = AlertManager.state();
+        pass++;
+        for (int r = 0; r < rules.length; r++) {
+            if (dirty.get(r) == 0 || !dirty.compareAndSet(r, 1, 0)) continue;
+            for (int i : inputsOf[r]) {
+                if (filledIn[i] != pass) {
+                    snapshot[i] = state.lastValue(inputSlot[i]);
+                    filledIn[i] = pass;
+                }
+            }
+            double v = exprs[r].eval(snapshot);
+            if (!Double.isNaN(v)) apply(r, v, transitions);
+        }
+    }
+
+    private void apply(int r, double v, Collection<AlertCorrelator.Transition> transitions) {
+        Rule rule = rules[r];
+        long id = alertIds[r];
+        AlertManager.AlertType active = AlertManager.getAlert(id);
+        AlertManager.AlertType next = MetricPoller.hysteresis(
+                rule.isMaxType(), rule.getThresholdHigh(), rule.getThresholdLow(), v, active);
+        if (next == active) return;
+
+        AlertCorrelator.Kind kind;
+        String cmp;
+        double threshold;
+        if (next == AlertManager.AlertType.OVER) {
+            kind = AlertCorrelator.Kind.ALERT_MAX; cmp = ">="; threshold = rule.getThresholdHigh();
+            AlertManager.setAlert(id, next);
+        } else if (next == AlertManager.AlertType.UNDER) {
+            kind = AlertCorrelator.Kind.ALERT_MIN; cmp = "<="; threshold = rule.getThresholdLow();
+            AlertManager.setAlert(id, next);
+        } else {
+            boolean wasMax = active == AlertManager.AlertType.OVER;
+            kind = wasMax ? AlertCorrelator.Kind.CLEAR_MAX : AlertCorrelator.Kind.CLEAR_MIN;
+            cmp = wasMax ? "<=" : ">=";
+            threshold = wasMax ? rule.getThresholdLow() : rule.getThresholdHigh();
+            AlertManager.clearAlert(id);
+        }
+        transitions.add(new AlertCorrelator.Transition(kind, "rule", names[r], v));
+        System.out.printf("[%s] [%s] rule %s v=%s %s %s%n",
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")),
+                next == null ? "CLEAR" : kind.text, names[r], v, cmp, threshold);
+    }
+
+    /** Stable negative id per rule name (FNV-1a); 0 is the global ZABBIX_DOWN key */
+    static long alertId(String name) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return -(h & Long.MAX_VALUE) - 1;
+    }
+
+    /** Glob with * and ? to an anchored pattern; anything else is literal */
+    private static Pattern glob(String g) {
+        StringBuilder re = new StringBuilder();
+        int lit = 0;
+        for (int i = 0; i < g.length(); i++) {
+            char c = g.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > lit) re.append(Pattern.quote(g.substring(lit, i)));
+                re.append(c == '*' ? ".*" : ".");
+                lit = i + 1;
+            }
+        }
+        if (lit < g.length()) re.append(Pattern.quote(g.substring(lit)));
+        return Pattern.compile(re.toString());
+    }
+}
@@ -0,0 +1,109 @@
+package alerter;
+
+import config.Metric;
+
+/**
+ * RuleWindow
+ * ----------
+ * Fixed-size ring buffer of (clock, value) points for one metric's windowed
+ * rule, plus the consecutive-breach counter for sustainedSamples.
+ *   • AVG  – running sum, updated on push and evict and recomputed from the
+ *            ring every CAPACITY evictions, so rounding error cannot build up;
+ *   • RATE – (newest − oldest) / (their clock difference), per second;
+ *   • LAST – the newest point (capacity 1).
+ * Points older than windowMinutes relative to the newest one are evicted on
+ * push; each point is added and evicted once, so a push is O(1) amortized and
+ * the window is never rescanned. When the ring is full the oldest point goes
+ * first (the window then covers fewer minutes than configured).
+ * The poller also keeps the rule's alert state here, stepped once per point,
+ * so a breach between two polls is not lost.
+ *
+ * Not thread-safe: callers synchronize on the instance.
+ */
+final class RuleWindow {
+
+    /** Points kept per metric (e.g. 5 min at 1 s item interval = 300) */
+    static final int CAPACITY = 512;
+
+    private final Metric.Aggregate aggregate;
+    private final long spanSec;
+    private final long[] clocks;
+    private final double[] values;
+    private int head;                       // oldest point
+    private int size;
+    private double sum;
+    private int evictions;                  // since the sum was last recomputed
+    private int breachRun;
+
+    /** Alert state the points seen so far lead to (OVER / UNDER / null) */
+    AlertManager.AlertType target;
+
+    RuleWindow(Metric m) {
+        this.aggregate = m.getAggregate();
+        this.spanSec = m.getWindowMinutes() * 60L;
+        int cap = aggregate == Metric.Aggregate.LAST ? 1 : CAPACITY;
+        this.clocks = new long[cap];
+        this.values = new double[cap];
+    }
+
+    /** True when this window was built for the metric's current rule settings */
+    boolean fits(Metric m) {
+        return aggregate == m.getAggregate() && spanSec == m.getWindowMinutes() * 60L;
+    }
+
+    /** Adds a point (clocks must not decrease) and returns the rule value, NaN while undefined. */
+    double push(long clock, double value) {
+        int cap = clocks.length;
+        if (size == cap) evictOldest();
+        int tail = (head + size) % cap;
+        clocks[tail] = clock;
+        values[tail] = value;
+        size++;
+        sum += value;
+        while (size > 1 && clocks[head] <= clock - spanSec) evictOldest();
+        return value();
+    }
+
+    /** Current rule value, NaN while undefined (empty, or RATE with < 2 points) */
+    double value() {
+        if (size == 0) return Double.NaN;
+        int newest = (head + size - 1) % clocks.length;
+        switch (aggregate) {
+            case AVG:
+                return sum / size;
+            case RATE:
+                long dt = clocks[newest] - clocks[head];
+                return size < 2 || dt <= 0 ? Double.NaN : (values[newest] - values[head]) / dt;
+            default:
+                return values[newest];
+        }
+    }
+
+    /** Clock of the newest point, 0 while empty */
+    long lastClock() {
+        return size == 0 ? 0 : clocks[(head + size - 1) % clocks.length];
+    }
+
+    /** Window length in seconds */
+    long spanSec() {
+        return spanSec;
+    }
+
+    /** Updates and returns the number of consecutive breaching samples. */
+    int breachRun(boolean breach) {
+        return breachRun = breach ? breachRun + 1 : 0;
+    }
+
+    private void evictOldest() {
+        sum -= values[head];
+        head = (head + 1) % clocks.length;
+        if (--size == 0) {
+            sum = 0;
+        } else if (++evictions >= CAPACITY) {
+            evictions = 0;
+            double s = 0;
+            for (int i = 0; i < size; i++) s += values[(head + i) % clocks.length];
+            sum = s;
+        }
+    }
+}
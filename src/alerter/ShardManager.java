@@ -0,0 +1,307 @@
+package alerter;
+
+import config.Metric;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * ShardManager
+ * ------------
+ * Splits the metric list across shard.count alerter nodes so that each metric
+ * is polled, and alerted on, by exactly one live node.
+ *   • Ownership is rendezvous hashing over (server, host, key): every live
+ *     node gets a deterministic share, and when a node dies only its metrics
+ *     move, spread over the survivors; they move back when it returns.<br>
+ *   • Liveness is a lease in a shared directory: every node rewrites
+ *     node-&lt;id&gt;.lease every leaseMs / 3; a lease older than leaseMs is
+ *     dead. A clean shutdown deletes it, so takeover is immediate.<br>
+ *   • node-&lt;id&gt;.lock is held (OS file lock) for the node's lifetime, so a
+ *     second process started with the same node id refuses to run.<br>
+ *   • The lowest live node is the leader: it owns the inputs of expression
+ *     rules and is the only one that evaluates rules and raises ZABBIX DOWN.<br>
+ *   • Alert handover: every node publishes its active alerts as
+ *     node-&lt;id&gt;.alerts with each heartbeat; alerts of metrics it gave
+ *     away stay listed for one more leaseMs. The others' files are read as
+ *     soon as a change of the live set is seen, and a node that takes a
+ *     metric over starts from its previous owner's state, so a breach that goes
+ *     on is not raised twice and one that ended is cleared by the new owner.
+ *     A node that died hands over the state of its last heartbeat.
+ */
+public final class ShardManager {
+
+    public static final int DEFAULT_LEASE_MS = 15_000;
+
+    /** Node ids are bits of one long */
+    public static final int MAX_NODES = 64;
+
+    private final Path dir;
+    private final int node;
+    private final int count;
+    private final long leaseMs;
+    private final ScheduledExecutorService heartbeat;
+
+    /** Bit i set = node i holds a valid lease */
+    private volatile long live;
+    private volatile LongConsumer onChange = prev -> {};
+
+    /** Alerts of metrics handed to another node, published until handedOffUntil (ms) */
+    private final Map<Long, AlertManager.AlertType> handedOff = new HashMap<>();
+    private long handedOffUntil;
+    /** Last content of node-&lt;id&gt;.alerts */
+    private Map<Long, AlertManager.AlertType> published;
+    /** Other nodes' alerts, read when the live set last changed; null value = unreadable */
+    private volatile Map<Integer, Map<Long, AlertManager.AlertType>> peerAlerts = Map.of();
+
+    @SuppressWarnings("unused")     // held for the lifetime of the process
+    private FileLock lock;
+
+    public ShardManager(Path dir, int node, int count, long leaseMs) {
+        if (count < 1 || count > MAX_NODES)
+            throw new IllegalArgumentException("shard.count must be 1.." + MAX_NODES);
+        if (node < 0 || node >= count)
+            throw new IllegalArgumentException("shard.node must be 0.." + (count - 1));
+        this.dir = dir;
+        this.node = node;
+        this.count = count;
+        this.leaseMs = Math.max(1000, leaseMs);
+        this.live = 1L << node;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Locks this node id, writes the first lease and waits two heartbeats so
+     * that running nodes see this one and publish the alerts they hand over
+     * before it polls, then reads the others' leases and keeps heartbeating.
+     * @throws IOException when the directory is unusable or the node id is taken
+     */
+    public void start() throws IOException, InterruptedException {
+        Files.createDirectories(dir);
+        FileChannel ch = FileChannel.open(dir.resolve("node-" + node + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = ch.tryLock();
+        if (lock == null) {
+            ch.close();
+            throw new IOException("shard node " + node + " is already running (" + dir + ")");
+        }
+        writeLease();
+        long beat = leaseMs / 3;
+        Thread.sleep(2 * beat);
+        writeLease();
+        scan();
+        System.out.printf("Shard: node %d of %d, live %s%n", node, count, nodes(live));
+
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                writeLease();
+            } catch (IOException e) {
+                System.err.println("Shard lease write error: " + e.getMessage());
+            }
+            scan();
+            publish();
+        }, beat, beat, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            heartbeat.shutdownNow();
+            synchronized (this) {
+                handedOffUntil = Long.MAX_VALUE;            // the survivors take everything over
+            }
+            publish();
+            try {
+                Files.deleteIfExists(lease(node));
+            } catch (IOException ignored) {}
+        }));
+    }
+
+    /**
+     * Called (on the heartbeat thread) whenever the set of live nodes changes,
+     * with the previous set.
+     */
+    public void onChange(LongConsumer l) { this.onChange = l; }
+
+    public int node()  { return node; }
+    public int count() { return count; }
+
+    /** Live nodes as a bit set */
+    public long liveNodes() { return live; }
+
+    /** Lowest live node */
+    public boolean isLeader() {
+        return leader(live) == node;
+    }
+
+    /** True when this node is the metric's owner among the live nodes */
+    public boolean owns(Metric m) {
+        return owner(m.identityHash(), live) == node;
+    }
+
+    /** The metric's owner among the given live nodes */
+    public int owner(Metric m, long liveMask) {
+        return owner(m.identityHash(), liveMask);
+    }
+
+    /** Leader among the given live nodes */
+    public static int leader(long liveMask) {
+        return Long.numberOfTrailingZeros(liveMask);
+    }
+
+    /** Metrics of the list this node owns */
+    public int ownedCount(Iterable<Metric> metrics) {
+        int n = 0;
+        for (Metric m : metrics) if (owns(m)) n++;
+        return n;
+    }
+
+    /** Rendezvous hashing: the live node with the highest weight for the key */
+    static int owner(long key, long liveMask) {
+        int best = -1;
+        long bestW = 0;
+        for (long bits = liveMask; bits != 0; bits &= bits - 1) {
+            int n = Long.numberOfTrailingZeros(bits);
+            long w = mix(key ^ (n + 1) * 0x9E3779B97F4A7C15L);
+            if (best < 0 || Long.compareUnsigned(w, bestW) > 0) {
+                best = n;
+                bestW = w;
+            }
+        }
+        return best;
+    }
+
+    /** 64-bit finalizer (MurmurHash3 fmix64) */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /* ---------------- alert handover ---------------- */
+
+    /**
+     * Alerts node n had published when the live set last changed: read right
+     * then, while the alerts a node hands over are still listed.
+     * @return empty when it published none, null when its file is unreadable
+     */
+    public Map<Long, AlertManager.AlertType> publishedAlerts(int n) {
+        Map<Integer, Map<Long, AlertManager.AlertType>> peers = peerAlerts;
+        return peers.containsKey(n) ? peers.get(n) : readAlerts(n);
+    }
+
+    /** Published alerts of every node of the mask but this one */
+    private Map<Integer, Map<Long, AlertManager.AlertType>> readPeerAlerts(long mask) {
+        Map<Integer, Map<Long, AlertManager.AlertType>> peers = new HashMap<>();
+        for (long bits = mask & ~(1L << node); bits != 0; bits &= bits - 1) {
+            int n = Long.numberOfTrailingZeros(bits);
+            peers.put(n, readAlerts(n));
+        }
+        return peers;
+    }
+
+    private Map<Long, AlertManager.AlertType> readAlerts(int n) {
+        Map<Long, AlertManager.AlertType> alerts = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(alertsFile(n), StandardCharsets.US_ASCII)) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) alerts.put(Long.parseLong(line.substring(0, tab)),
+                        AlertManager.AlertType.valueOf(line.substring(tab + 1)));
+            }
+        } catch (NoSuchFileException e) {
+            // published nothing yet
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.printf("Shard alerts of node %d unreadable: %s%n", n, e.getMessage());
+            return null;
+        }
+        return alerts;
+    }
+
+    /**
+     * Publishes the alerts of metrics just given away (keyed by state key) for
+     * their new owners, and stops publishing the taken-back ones.
+     */
+    public void handOver(Map<Long, AlertManager.AlertType> given, Collection<Long> taken) {
+        synchronized (this) {
+            handedOff.keySet().removeAll(taken);
+            if (!given.isEmpty()) {
+                handedOff.putAll(given);
+                handedOffUntil = System.currentTimeMillis() + leaseMs;
+            }
+        }
+        publish();
+    }
+
+    /** Rewrites node-&lt;id&gt;.alerts when the alert state changed */
+    private synchronized void publish() {
+        Map<Long, AlertManager.AlertType> alerts = AlertManager.snapshot();
+        if (System.currentTimeMillis() > handedOffUntil) handedOff.clear();
+        handedOff.forEach(alerts::putIfAbsent);
+        if (alerts.equals(published)) return;
+        StringBuilder sb = new StringBuilder();
+        alerts.forEach((key, type) -> sb.append(key).append('\t').append(type.name()).append('\n'));
+        try {
+            Path tmp = dir.resolve("node-" + node + ".alerts.tmp");
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.US_ASCII));
+            Files.move(tmp, alertsFile(node), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            published = alerts;
+        } catch (IOException e) {
+            System.err.println("Shard alerts write error: " + e.getMessage());
+        }
+    }
+
+    private Path alertsFile(int n) {
+        return dir.resolve("node-" + n + ".alerts");
+    }
+
+    /* ---------------- leases ---------------- */
+
+    private Path lease(int n) {
+        return dir.resolve("node-" + n + ".lease");
+    }
+
+    /** Lease content: wall-clock millis of the last heartbeat */
+    private void writeLease() throws IOException {
+        Path tmp = dir.resolve("node-" + node + ".lease.tmp");
+        Files.write(tmp, Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, lease(node), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void scan() {
+        long now = System.currentTimeMillis();
+        long next = 1L << node;
+        for (int n = 0; n < count; n++) {
+            if (n == node) continue;
+            try {
+                long beat = Long.parseLong(new String(Files.readAllBytes(lease(n)), StandardCharsets.US_ASCII).trim());
+                if (now - beat < leaseMs) next |= 1L << n;
+            } catch (NoSuchFileException e) {
+                // never started or shut down cleanly
+            } catch (IOException | NumberFormatException e) {
+                System.err.printf("Shard lease of node %d unreadable: %s%n", n, e.getMessage());
+            }
+        }
+        long prev = live;
+        if (next == prev) return;
+        peerAlerts = readPeerAlerts(prev | next);
+        live = next;
+        System.out.printf("Shard: live nodes %s (were %s)%n", nodes(next), nodes(prev));
+        onChange.accept(prev);
+    }
+
+    private static String nodes(long mask) {
+        StringBuilder sb = new StringBuilder("[");
+        for (long bits = mask; bits != 0; bits &= bits - 1) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append(Long.numberOfTrailingZeros(bits));
+        }
+        return sb.append(']').toString();
+    }
+}
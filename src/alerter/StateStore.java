@@ -0,0 +1,180 @@
+package alerter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * StateStore
+ * ----------
+ * Dense per-metric state in primitive arrays, indexed by the metric's slot:
+ * last value, last clock, alert type, time of last alert transition and the
+ * bound itemId, plus an in-flight marker used to coalesce overlapping polls.
+ * Every field is a lock-free per-slot atomic; reads and writes allocate
+ * nothing. Metrics with a windowed rule also keep their {@link RuleWindow} here.
+ *
+ * Slots live in fixed-size segments that never move, so growing the store
+ * (config reload adding metrics) cannot lose a concurrent write.
+ * Released slots are reset and reused.
+ */
+public final class StateStore {
+
+    /** alert code for "no alert"; otherwise AlertType.ordinal() + 1 */
+    private static final int NO_ALERT = 0;
+
+    private static final int SEG_BITS = 12;
+    private static final int SEG_SIZE = 1 << SEG_BITS;
+    private static final int SEG_MASK = SEG_SIZE - 1;
+
+    private static final AlertManager.AlertType[] TYPES = AlertManager.AlertType.values();
+
+    private volatile Segment[] segments = new Segment[0];
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private int next;                       // first never-used slot
+
+    /** Reserves a slot (reusing released ones first). */
+    public synchronized int allocate() {
+        Integer reused = free.poll();
+        if (reused != null) return reused;
+        int slot = next++;
+        if ((slot >>> SEG_BITS) >= segments.length) {
+            Segment[] grown = Arrays.copyOf(segments, segments.length + 1);
+            grown[grown.length - 1] = new Segment();
+            segments = grown;
+        }
+        return slot;
+    }
+
+    /** Resets a slot and makes it available again. */
+    public synchronized void release(int slot) {
+        Segment s = seg(slot);
+        int i = slot & SEG_MASK;
+        s.value.set(i, Double.doubleToRawLongBits(Double.NaN));
+        s.clock.set(i, 0);
+        s.since.set(i, 0);
+        s.itemId.set(i, 0);
+        s.alert.set(i, NO_ALERT);
+        s.window.set(i, null);
+        s.busy.set(i, 0);
+        free.add(slot);
+    }
+
+    /** Highest slot ever handed out + 1 */
+    public synchronized int highWater() { return next; }
+
+    /* ---------------- values ---------------- */
+
+    public void recordValue(int slot, double value, long clock) {
+        Segment s = seg(slot);
+        int i = slot & SEG_MASK;
+        synchronized (s) {                  // value and clock change together (see recordIfNewer)
+            s.value.set(i, Double.doubleToRawLongBits(value));
+            s.clock.set(i, clock);
+        }
+    }
+
+    /**
+     * Records the value unless the slot already holds a newer one; the check
+     * and the write are one step, so concurrent writers cannot move it back.
+     * @return false when clock is older than the recorded one
+     */
+    public boolean recordIfNewer(int slot, double value, long clock) {
+        Segment s = seg(slot);
+        int i = slot & SEG_MASK;
+        synchronized (s) {
+            if (clock < s.clock.get(i)) return false;
+            s.value.set(i, Double.doubleToRawLongBits(value));
+            s.clock.set(i, clock);
+            return true;
+        }
+    }
+
+    /** Marks "no data" (value = NaN, clock kept) */
+    public void clearValue(int slot) {
+        seg(slot).value.set(slot & SEG_MASK, Double.doubleToRawLongBits(Double.NaN));
+    }
+
+    public double lastValue(int slot) {
+        return Double.longBitsToDouble(seg(slot).value.get(slot & SEG_MASK));
+    }
+
+    public long lastClock(int slot) {
+        return seg(slot).clock.get(slot & SEG_MASK);
+    }
+
+    /* ---------------- alerts ---------------- */
+
+    public AlertManager.AlertType alert(int slot) {
+        int code = seg(slot).alert.get(slot & SEG_MASK);
+        return code == NO_ALERT ? null : TYPES[code - 1];
+    }
+
+    /**
+     * Sets (type != null) or clears (type == null) the alert.
+     * @return the previous type (null = none)
+     */
+    public AlertManager.AlertType swapAlert(int slot, AlertManager.AlertType type, long nowMs) {
+        Segment s = seg(slot);
+        int i = slot & SEG_MASK;
+        int prev = s.alert.getAndSet(i, type == null ? NO_ALERT : type.ordinal() + 1);
+        if (prev != (type == null ? NO_ALERT : type.ordinal() + 1)) s.since.set(i, nowMs);
+        return prev == NO_ALERT ? null : TYPES[prev - 1];
+    }
+
+    /** Time (ms) of the last alert transition on this slot, 0 = never */
+    public long transitionAt(int slot) {
+        return seg(slot).since.get(slot & SEG_MASK);
+    }
+
+    /* ---------------- itemId binding ---------------- */
+
+    public long itemId(int slot) {
+        return seg(slot).itemId.get(slot & SEG_MASK);
+    }
+
+    public void bindItemId(int slot, long itemId) {
+        seg(slot).itemId.set(slot & SEG_MASK, itemId);
+    }
+
+    /* ---------------- rule windows ---------------- */
+
+    RuleWindow window(int slot) {
+        return seg(slot).window.get(slot & SEG_MASK);
+    }
+
+    void setWindow(int slot, RuleWindow w) {
+        seg(slot).window.set(slot & SEG_MASK, w);
+    }
+
+    /* ---------------- in-flight marker ---------------- */
+
+    /** Marks the slot as being polled; false when a poll of it is still in flight. */
+    public boolean tryBusy(int slot) {
+        return seg(slot).busy.compareAndSet(slot & SEG_MASK, 0, 1);
+    }
+
+    public void clearBusy(int slot) {
+        seg(slot).busy.set(slot & SEG_MASK, 0);
+    }
+
+    private Segment seg(int slot) {
+        return segments[slot >>> SEG_BITS];
+    }
+
+    private static final class Segment {
+        final AtomicLongArray    value  = new AtomicLongArray(SEG_SIZE);
+        final AtomicLongArray    clock  = new AtomicLongArray(SEG_SIZE);
+        final AtomicLongArray    since  = new AtomicLongArray(SEG_SIZE);
+        final AtomicLongArray    itemId = new AtomicLongArray(SEG_SIZE);
+        final AtomicIntegerArray alert  = new AtomicIntegerArray(SEG_SIZE);
+        final AtomicIntegerArray busy   = new AtomicIntegerArray(SEG_SIZE);
+        final AtomicReferenceArray<RuleWindow> window = new AtomicReferenceArray<>(SEG_SIZE);
+
+        Segment() {
+            long nan = Double.doubleToRawLongBits(Double.NaN);
+            for (int i = 0; i < SEG_SIZE; i++) value.set(i, nan);
+        }
+    }
+}
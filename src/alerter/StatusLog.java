@@ -0,0 +1,329 @@
+package alerter;
+
+import config.Metric;
+import stats.Registry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * StatusLog
+ * ---------
+ * Per-metric status lines ([OK] / [ALERT …] / [CLEAR] / [NO DATA] …) off the
+ * worker threads. Workers claim an entry of a preallocated ring with one CAS,
+ * fill its fields (time, slot, metric, status, value, threshold) and publish
+ * it; nothing is formatted or allocated on their side. One consumer thread
+ * formats the published entries in order and writes them in batches, as the
+ * classic text lines or as JSON Lines, to stdout or to a size-rotated file.
+ *
+ * When the ring is full, {@link Overflow#DROP} discards the new line (counted
+ * in zabbix_alerter_status_log_dropped_total) and {@link Overflow#BLOCK} makes
+ * the worker wait for the consumer.
+ */
+public final class StatusLog {
+
+    public enum Format   { TEXT, JSON }
+    public enum Overflow { DROP, BLOCK }
+
+    /** What happened to the metric; the text tag is the classic console tag */
+    public enum Status {
+        OK("OK"), NO_DATA("NO DATA"), SKIP("SKIP"), ERROR("ERROR"),
+        ALERT_MAX("ALERT MAX"), ALERT_MIN("ALERT MIN"),
+        ONGOING_MAX("ALERT MAX"), ONGOING_MIN("ALERT MIN"),
+        CLEAR_MAX("CLEAR"), CLEAR_MIN("CLEAR");
+
+        final String tag;
+        Status(String tag) { this.tag = tag; }
+    }
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** Max entries formatted into one write */
+    private static final int BATCH = 1024;
+
+    private static final DateTimeFormatter TS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final LongAdder DROPPED = Registry.counter("zabbix_alerter_status_log_dropped_total",
+            "Status lines discarded because the log ring was full", "");
+
+    private final Format format;
+    private final Overflow overflow;
+    private final OutputStream out;
+    private final int mask;
+
+    /* ---- ring: parallel arrays, entry i holds sequence published[i] once written ---- */
+    private final AtomicLongArray published;
+    private final long[]   epochSec;
+    private final int[]    slots;
+    private final Metric[] metrics;
+    private final Status[] statuses;
+    private final double[] values;
+    private final double[] thresholds;
+    private final String[] messages;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    private volatile boolean closed;
+    private final Thread consumer;
+
+    /* ---- consumer-side buffers ---- */
+    private final StringBuilder sb = new StringBuilder(BATCH * 96);
+    private long tsSec = Long.MIN_VALUE;
+    private String tsText = "";
+
+    /**
+     * @param capacity ring size, rounded up to a power of two
+     * @param out      destination; written only by the consumer thread
+     */
+    public StatusLog(Format format, Overflow overflow, int capacity, OutputStream out) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.format = format;
+        this.overflow = overflow;
+        this.out = out;
+        this.mask = cap - 1;
+        this.published  = new AtomicLongArray(cap);
+        this.epochSec   = new long[cap];
+        this.slots      = new int[cap];
+        this.metrics    = new Metric[cap];
+        this.statuses   = new Status[cap];
+        this.values     = new double[cap];
+        this.thresholds = new double[cap];
+        this.messages   = new String[cap];
+        for (int i = 0; i < cap; i++) published.set(i, -1);
+        this.consumer = new Thread(this::drainLoop, "status-log");
+        this.consumer.setDaemon(true);
+    }
+
+    /** Text lines on stdout, dropping on overflow: the console output of earlier versions */
+    public static StatusLog console() {
+        return new StatusLog(Format.TEXT, Overflow.DROP, DEFAULT_CAPACITY, System.out);
+    }
+
+    /** Appends to path, rotating to path.1 … path.keep once it exceeds maxBytes. */
+    public static OutputStream rotatingFile(Path path, long maxBytes, int keep) throws IOException {
+        return new RotatingFile(path, maxBytes, keep);
+    }
+
+    public StatusLog start() {
+        consumer.start();
+        return this;
+    }
+
+    /** Writes what is already published and stops the consumer. */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ---------------- producer side ---------------- */
+
+    public void publish(long epochSecond, Metric m, Status status, double value, double threshold) {
+        publish(epochSecond, m, status, value, threshold, null);
+    }
+
+    public void error(long epochSecond, Metric m, String message) {
+        publish(epochSecond, m, Status.ERROR, Double.NaN, Double.NaN, message);
+    }
+
+    private void publish(long epochSecond, Metric m, Status status, double value, double threshold,
+                         String message) {
+        long seq;
+        while (true) {
+            seq = claimed.get();
+            if (seq - consumed > mask) {                // full
+                if (overflow == Overflow.DROP || closed) {
+                    DROPPED.increment();
+                    return;
+                }
+                LockSupport.parkNanos(50_000);
+                continue;
+            }
+            if (claimed.compareAndSet(seq, seq + 1)) break;
+        }
+        int i = (int) seq & mask;
+        epochSec[i]   = epochSecond;
+        slots[i]      = m.getSlot();
+        metrics[i]    = m;
+        statuses[i]   = status;
+        values[i]     = value;
+        thresholds[i] = threshold;
+        messages[i]   = message;
+        published.set(i, seq);                          // volatile write publishes the fields
+    }
+
+    /* ---------------- consumer side ---------------- */
+
+    private void drainLoop() {
+        while (true) {
+            boolean stop = closed;
+            int n = drainBatch();
+            if (n == 0) {
+                if (stop) return;
+                LockSupport.parkNanos(5_000_000);
+            }
+        }
+    }
+
+    /** Formats and writes up to BATCH published entries; returns how many. */
+    private int drainBatch() {
+        long next = consumed;
+        int n = 0;
+        sb.setLength(0);
+        while (n < BATCH) {
+            int i = (int) next & mask;
+            if (published.get(i) != next) break;
+            if (format == Format.JSON) formatJson(i); else formatText(i);
+            metrics[i] = null;
+            messages[i] = null;
+            next++;
+            n++;
+        }
+        if (n == 0) return 0;
+        consumed = next;                                // frees the entries for producers
+        try {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Status log write failed: " + e.getMessage());
+        }
+        return n;
+    }
+
+    private String ts(long sec) {
+        if (sec != tsSec) {
+            tsSec = sec;
+            tsText = TS.format(Instant.ofEpochSecond(sec));
+        }
+        return tsText;
+    }
+
+    private void formatText(int i) {
+        Metric m = metrics[i];
+        Status s = statuses[i];
+        sb.append('[').append(ts(epochSec[i])).append("] [").append(s.tag).append("] ")
+          .append(m.getHost()).append(' ').append(m.getKey());
+        switch (s) {
+            case OK:          sb.append(": ").append(values[i]); break;
+            case SKIP:        sb.append(": no itemId"); break;
+            case ERROR:       sb.append(": ").append(messages[i]); break;
+            case ALERT_MAX:   sb.append(" v=").append(values[i]).append(" >= ").append(thresholds[i]); break;
+            case ALERT_MIN:   sb.append(" v=").append(values[i]).append(" <= ").append(thresholds[i]); break;
+            case CLEAR_MAX:   sb.append(" v=").append(values[i]).append(" <= ").append(thresholds[i]); break;
+            case CLEAR_MIN:   sb.append(" v=").append(values[i]).append(" >= ").append(thresholds[i]); break;
+            case ONGOING_MAX:
+            case ONGOING_MIN: sb.append(" ongoing, value=").append(values[i]); break;
+            default:          break;
+        }
+        sb.append('\n');
+    }
+
+    private void formatJson(int i) {
+        Metric m = metrics[i];
+        sb.append("{\"ts\":\"").append(ts(epochSec[i]))
+          .append("\",\"status\":\"").append(statuses[i].name())
+          .append("\",\"slot\":").append(slots[i])
+          .append(",\"host\":");
+        jsonString(m.getHost());
+        sb.append(",\"key\":");
+        jsonString(m.getKey());
+        sb.append(",\"value\":");
+        jsonNumber(values[i]);
+        sb.append(",\"threshold\":");
+        jsonNumber(thresholds[i]);
+        if (messages[i] != null) {
+            sb.append(",\"message\":");
+            jsonString(messages[i]);
+        }
+        sb.append("}\n");
+    }
+
+    private void jsonNumber(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) sb.append("null");
+        else sb.append(v);
+    }
+
+    private void jsonString(String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /* ---------------- rotating file ---------------- */
+
+    private static final class RotatingFile extends OutputStream {
+        private final Path path;
+        private final long maxBytes;
+        private final int keep;
+        private OutputStream out;
+        private long size;
+
+        RotatingFile(Path path, long maxBytes, int keep) throws IOException {
+            this.path = path;
+            this.maxBytes = Math.max(1, maxBytes);
+            this.keep = Math.max(1, keep);
+            open();
+        }
+
+        private void open() throws IOException {
+            Path dir = path.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            out = new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+            size = Files.size(path);
+        }
+
+        private void rotate() throws IOException {
+            out.close();
+            for (int k = keep - 1; k >= 1; k--) {
+                Path from = Paths.get(path + "." + k);
+                if (Files.exists(from))
+                    Files.move(from, Paths.get(path + "." + (k + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(path, Paths.get(path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            open();
+        }
+
+        @Override public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            if (size > 0 && size + len > maxBytes) rotate();
+            out.write(b, off, len);
+            size += len;
+        }
+
+        @Override public void flush() throws IOException { out.flush(); }
+        @Override public void close() throws IOException { out.close(); }
+    }
+}
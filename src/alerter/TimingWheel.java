@@ -0,0 +1,68 @@
+package alerter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * TimingWheel
+ * -----------
+ * Hashed timing wheel: a ring of slots, one per tick. An item due in d ticks
+ * goes to slot (now + d) mod size; items due more than one revolution ahead
+ * stay in their slot until their deadline tick comes round.
+ * schedule() and advance() are O(1) per item.
+ *
+ * Not thread-safe: drive it from a single thread (the poller's scheduler).
+ */
+final class TimingWheel<T> {
+
+    private final List<Entry<T>>[] slots;
+    private long tick;                  // current tick number
+    private int  size;                  // scheduled entries
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(int wheelSize) {
+        this.slots = new List[wheelSize];
+    }
+
+    /** Schedules an item to come due after delayTicks (>= 1) ticks. */
+    void schedule(T item, long delayTicks) {
+        long deadline = tick + Math.max(1, delayTicks);
+        int idx = (int) (deadline % slots.length);
+        if (slots[idx] == null) slots[idx] = new ArrayList<>();
+        slots[idx].add(new Entry<>(item, deadline));
+        size++;
+    }
+
+    /** Moves one tick forward and returns the items that came due (possibly empty). */
+    List<T> advance() {
+        tick++;
+        List<Entry<T>> slot = slots[(int) (tick % slots.length)];
+        if (slot == null || slot.isEmpty()) return List.of();
+
+        List<T> due = new ArrayList<>();
+        for (Iterator<Entry<T>> it = slot.iterator(); it.hasNext(); ) {
+            Entry<T> e = it.next();
+            if (e.deadline <= tick) {
+                due.add(e.item);
+                it.remove();
+            }
+        }
+        size -= due.size();
+        return due;
+    }
+
+    /** Drops every scheduled item. */
+    void clear() {
+        for (List<Entry<T>> slot : slots) if (slot != null) slot.clear();
+        size = 0;
+    }
+
+    int size() { return size; }
+
+    private static final class Entry<T> {
+        final T item;
+        final long deadline;
+        Entry(T item, long deadline) { this.item = item; this.deadline = deadline; }
+    }
+}
@@ -0,0 +1,78 @@
+package config;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Properties;
+
+/**
+ * AppSettings
+ * -----------
+ * Runtime tuning knobs (timeouts, pool sizes, modes …).
+ *
+ * Lookup order (first wins):
+ *   1. CLI arguments of the form key=value
+ *   2. JVM system properties (-Dkey=value)
+ *   3. alerter.properties in the working directory (optional)
+ *   4. the default passed by the caller
+ */
+public final class AppSettings {
+    private static final String FILENAME = "alerter.properties";
+
+    private static final Properties fileProps = new Properties();
+    private static final Properties cliProps  = new Properties();
+
+    static {
+        Path p = Paths.get(FILENAME).toAbsolutePath();
+        if (Files.exists(p)) {
+            try (Reader r = Files.newBufferedReader(p)) {
+                fileProps.load(r);
+            } catch (IOException e) {
+                System.err.println("Cannot read " + FILENAME + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private AppSettings() {}
+
+    /** Registers every key=value CLI argument as an override. */
+    public static void applyArgs(String[] args) {
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq > 0) cliProps.setProperty(a.substring(0, eq).trim(), a.substring(eq + 1).trim());
+        }
+    }
+
+    public static String get(String name, String def) {
+        String v = cliProps.getProperty(name);
+        if (v == null) v = System.getProperty(name);
+        if (v == null) v = fileProps.getProperty(name);
+        return v != null ? v.trim() : def;
+    }
+
+    public static int getInt(String name, int def) {
+        String v = get(name, null);
+        if (v == null) return def;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + name + "='" + v + "', using " + def);
+            return def;
+        }
+    }
+
+    public static long getLong(String name, long def) {
+        String v = get(name, null);
+        if (v == null) return def;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + name + "='" + v + "', using " + def);
+            return def;
+        }
+    }
+
+    public static boolean getBool(String name, boolean def) {
+        String v = get(name, null);
+        return v == null ? def : Boolean.parseBoolean(v);
+    }
+}
@@ -2,17 +2,40 @@ package config;
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.ArrayList;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
 public final class ConfigLoader {
     private static final String FILENAME = "metricsettings.xml";
-    private static final XmlMapper MAPPER = new XmlMapper();
     private ConfigLoader() {}
 
     public static MetricsConfig load() throws IOException {
-        Path p = Paths.get(FILENAME).toAbsolutePath();
+        return load(path());
+    }
+
+    /** Parses and validates with the StAX {@link ConfigParser}; errors carry line numbers. */
+    public static MetricsConfig load(Path p) throws IOException {
+        return ConfigParser.parse(p);
+    }
+
+    /** The former Jackson data-binding load, kept as a reference for the startup benchmark */
+    public static MetricsConfig loadWithJackson(Path p) throws IOException {
         try (Reader r = Files.newBufferedReader(p)) {
-            return MAPPER.readValue(r, MetricsConfig.class);
+            MetricsConfig cfg = Jackson.MAPPER.readValue(r, MetricsConfig.class);
+            if (cfg.getMetricList() == null) cfg.setMetricList(new ArrayList<>());
+            if (cfg.getRuleList() == null) cfg.setRuleList(new ArrayList<>());
+            if (cfg.getServerList() == null) cfg.setServerList(new ArrayList<>());
+            return cfg;
         }
     }
+
+    /** Holder: the mapper (and its class graph) is only loaded when used */
+    private static final class Jackson {
+        static final XmlMapper MAPPER = new XmlMapper();
+    }
+
+    /** Absolute path of metricsettings.xml in the working directory */
+    public static Path path() {
+        return Paths.get(FILENAME).toAbsolutePath();
+    }
 }
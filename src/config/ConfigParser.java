@@ -0,0 +1,295 @@
+package config;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * ConfigParser
+ * ------------
+ * Reads metricsettings.xml with the JDK's built-in StAX reader straight into
+ * {@link Metric}, {@link Rule} and {@link Server} objects. Startup then loads
+ * no Jackson databind / XML module / Woodstox classes at all.
+ *   • accepts the same documents as the Jackson mapping: child elements or
+ *     attributes per property, empty elements = not set;<br>
+ *   • validates while reading and reports every problem with its line and
+ *     column (unknown or repeated element, bad number or enum, missing
+ *     host / key / expr, out-of-range interval);<br>
+ *   • warns (without failing) about duplicate metrics and MAX / MIN
+ *     thresholds in the wrong order.
+ * DTDs and external entities are not processed.
+ */
+final class ConfigParser {
+
+    /** Problems listed in one exception at most; the rest are counted */
+    private static final int MAX_REPORTED = 20;
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newDefaultFactory();
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private final String file;
+    private final List<String> errors = new ArrayList<>();
+    private XMLStreamReader r;
+
+    private ConfigParser(Path p) {
+        this.file = p.getFileName().toString();
+    }
+
+    /**
+     * Parses and validates the file.
+     * @throws IOException on a read error, malformed XML or any validation
+     *         error; the message lists them as "file:line:column: problem"
+     */
+    static MetricsConfig parse(Path p) throws IOException {
+        return new ConfigParser(p).read(p);
+    }
+
+    private MetricsConfig read(Path p) throws IOException {
+        List<Metric> metrics = new ArrayList<>();
+        List<Rule>   rules   = new ArrayList<>();
+        List<Server> servers = new ArrayList<>();
+        Map<String, Integer> lineOf = new HashMap<>();      // metric identity → first line
+
+        try (InputStream in = Files.newInputStream(p)) {
+            r = FACTORY.createXMLStreamReader(in);
+            try {
+                r.nextTag();                                 // root element (<metrics>)
+                while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    int line = r.getLocation().getLineNumber();
+                    String name = r.getLocalName();
+                    switch (name) {
+                        case "metric": {
+                            Metric m = metric(line);
+                            if (m == null) break;
+                            metrics.add(m);
+                            Integer first = lineOf.putIfAbsent(m.identity(), line);
+                            if (first != null)
+                                warn(line, "metric " + m.getHost() + " " + m.getKey() + " repeats line " + first);
+                            break;
+                        }
+                        case "rule":   rules.add(rule(line));     break;
+                        case "server": servers.add(server());     break;
+                        default:
+                            error(line, "unknown element <" + name + ">, expected <metric>, <rule> or <server>");
+                            skip();
+                    }
+                }
+            } finally {
+                r.close();
+            }
+        } catch (XMLStreamException e) {
+            javax.xml.stream.Location l = e.getLocation();
+            String at = l != null ? l.getLineNumber() + ":" + l.getColumnNumber() : "?";
+            throw new IOException(file + ":" + at + ": malformed XML: " + stripLocation(e.getMessage()), e);
+        }
+
+        if (!errors.isEmpty()) {
+            StringBuilder sb = new StringBuilder(file).append(": ").append(errors.size()).append(" error(s)");
+            for (int i = 0; i < errors.size() && i < MAX_REPORTED; i++) sb.append("\n  ").append(errors.get(i));
+            if (errors.size() > MAX_REPORTED) sb.append("\n  +").append(errors.size() - MAX_REPORTED).append(" more");
+            throw new IOException(sb.toString());
+        }
+        MetricsConfig cfg = new MetricsConfig();
+        cfg.setMetricList(metrics);
+        cfg.setRuleList(rules);
+        cfg.setServerList(servers);
+        return cfg;
+    }
+
+    /* ---------------- elements ---------------- */
+
+    /** @return null when host or key is missing (reported) */
+    private Metric metric(int line) throws XMLStreamException {
+        Metric m = new Metric();
+        Set<String> seen = new HashSet<>();
+        for (Property p : properties("metric", seen)) {
+            switch (p.name) {
+                case "host":             m.setHost(p.text); break;
+                case "key":              m.setKey(p.text); break;
+                case "server":           m.setServer(p.text); break;
+                case "thresholdHigh":    m.setThresholdHigh(number(p)); break;
+                case "thresholdLow":     m.setThresholdLow(number(p)); break;
+                case "alertType":        m.setAlertType(constant(p, Metric.AlertType.class, m.getAlertType())); break;
+                case "pollInterval":     m.setPollInterval(integer(p, 1)); break;
+                case "jitter":           m.setJitter(integer(p, 0)); break;
+                case "aggregate":        m.setAggregate(constant(p, Metric.Aggregate.class, null)); break;
+                case "windowMinutes":    m.setWindowMinutes(integer(p, 1)); break;
+                case "sustainedSamples": m.setSustainedSamples(integer(p, 1)); break;
+                default:                 unknown("metric", p);
+            }
+        }
+        boolean ok = required(line, "metric", "host", m.getHost()) & required(line, "metric", "key", m.getKey());
+        if (ok && seen.contains("thresholdHigh") && seen.contains("thresholdLow")
+                && m.getThresholdLow() > m.getThresholdHigh())
+            warn(line, "metric " + m.getHost() + " " + m.getKey() + ": thresholdLow is above thresholdHigh");
+        return ok ? m : null;
+    }
+
+    private Rule rule(int line) throws XMLStreamException {
+        Rule rule = new Rule();
+        for (Property p : properties("rule", new HashSet<>())) {
+            switch (p.name) {
+                case "name":          rule.setName(p.text); break;
+                case "expr":          rule.setExpr(p.text); break;
+                case "thresholdHigh": rule.setThresholdHigh(number(p)); break;
+                case "thresholdLow":  rule.setThresholdLow(number(p)); break;
+                case "alertType":     rule.setAlertType(constant(p, Metric.AlertType.class, rule.getAlertType())); break;
+                default:              unknown("rule", p);
+            }
+        }
+        required(line, "rule", "expr", rule.getExpr());
+        return rule;
+    }
+
+    private Server server() throws XMLStreamException {
+        Server s = new Server();
+        for (Property p : properties("server", new HashSet<>())) {
+            switch (p.name) {
+                case "name":        s.setName(p.text); break;
+                case "url":         s.setUrl(p.text); break;
+                case "token":       s.setToken(p.text); break;
+                case "tokenEnv":    s.setTokenEnv(p.text); break;
+                case "maxInFlight": s.setMaxInFlight(integer(p, 1)); break;
+                default:            unknown("server", p);
+            }
+        }
+        return s;
+    }
+
+    /* ---------------- properties ---------------- */
+
+    /** One attribute or child element with text; empty ones are left out */
+    private static final class Property {
+        final String name, text;
+        final int line, column;
+
+        Property(String name, String text, int line, int column) {
+            this.name = name;
+            this.text = text;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Attributes and child elements of the current element, which is consumed
+     * up to its end tag. Repeated properties and nested elements are reported.
+     */
+    private List<Property> properties(String element, Set<String> seen) throws XMLStreamException {
+        List<Property> list = new ArrayList<>();
+        int line = r.getLocation().getLineNumber(), column = r.getLocation().getColumnNumber();
+        for (int i = 0; i < r.getAttributeCount(); i++) {
+            add(list, seen, element, new Property(r.getAttributeLocalName(i), r.getAttributeValue(i), line, column));
+        }
+        while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = r.getLocalName();
+            line = r.getLocation().getLineNumber();
+            column = r.getLocation().getColumnNumber();
+            StringBuilder text = new StringBuilder();
+            boolean nested = false;
+            for (int ev = r.next(); ev != XMLStreamConstants.END_ELEMENT; ev = r.next()) {
+                if (ev == XMLStreamConstants.CHARACTERS || ev == XMLStreamConstants.CDATA) {
+                    text.append(r.getText());
+                } else if (ev == XMLStreamConstants.START_ELEMENT) {
+                    if (!nested) error(r.getLocation().getLineNumber(), r.getLocation().getColumnNumber(),
+                            "<" + name + "> in <" + element + "> must be text, found <" + r.getLocalName() + ">");
+                    nested = true;
+                    skip();
+                }
+            }
+            add(list, seen, element, new Property(name, text.toString(), line, column));
+        }
+        return list;
+    }
+
+    private void add(List<Property> list, Set<String> seen, String element, Property p) {
+        if (!seen.add(p.name)) {
+            error(p.line, p.column, "<" + element + "> sets " + p.name + " more than once");
+            return;
+        }
+        if (!p.text.isBlank()) list.add(p);
+    }
+
+    private double number(Property p) {
+        try {
+            return Double.parseDouble(p.text.trim());
+        } catch (NumberFormatException e) {
+            error(p.line, p.column, p.name + ": '" + p.text.trim() + "' is not a number");
+            return 0.0;
+        }
+    }
+
+    /** Whole number >= min; null (not set) when invalid */
+    private Integer integer(Property p, int min) {
+        int v;
+        try {
+            v = Integer.parseInt(p.text.trim());
+        } catch (NumberFormatException e) {
+            error(p.line, p.column, p.name + ": '" + p.text.trim() + "' is not a whole number");
+            return null;
+        }
+        if (v < min) {
+            error(p.line, p.column, p.name + ": " + v + " is below " + min);
+            return null;
+        }
+        return v;
+    }
+
+    private <E extends Enum<E>> E constant(Property p, Class<E> type, E def) {
+        String t = p.text.trim();
+        for (E e : type.getEnumConstants()) if (e.name().equalsIgnoreCase(t)) return e;
+        error(p.line, p.column, p.name + ": '" + t + "' is not one of " + Arrays.toString(type.getEnumConstants()));
+        return def;
+    }
+
+    private void unknown(String element, Property p) {
+        error(p.line, p.column, "unknown property " + p.name + " in <" + element + ">");
+    }
+
+    /** Reports a missing or blank required property */
+    private boolean required(int line, String element, String name, String value) {
+        if (value != null && !value.isBlank()) return true;
+        error(line, "<" + element + "> needs " + name);
+        return false;
+    }
+
+    /** Skips the current element with everything inside it */
+    private void skip() throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    /* ---------------- reporting ---------------- */
+
+    private void error(int line, String msg) {
+        errors.add(file + ":" + line + ": " + msg);
+    }
+
+    private void error(int line, int column, String msg) {
+        errors.add(file + ":" + line + ":" + column + ": " + msg);
+    }
+
+    private void warn(int line, String msg) {
+        System.err.println(file + ":" + line + ": warning: " + msg);
+    }
+
+    /** The JDK reader prefixes its messages with "ParseError at [row,col]:[..]" */
+    private static String stripLocation(String msg) {
+        if (msg == null) return "";
+        int i = msg.indexOf("Message: ");
+        return i >= 0 ? msg.substring(i + 9) : msg;
+    }
+}
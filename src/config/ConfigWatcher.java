@@ -0,0 +1,80 @@
+package config;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * ConfigWatcher
+ * -------------
+ * Watches metricsettings.xml with a WatchService and hands every successfully
+ * parsed new version to a listener. Bursts of events (editor save = truncate +
+ * write, or write-temp + rename) are debounced; a file that fails to parse is
+ * reported and the live configuration stays in place.
+ */
+public final class ConfigWatcher {
+
+    /** Quiet period after the last event before the file is re-read */
+    private static final long DEBOUNCE_MS = 500;
+
+    private final Path file;
+    private final Consumer<MetricsConfig> listener;
+
+    public ConfigWatcher(Path file, Consumer<MetricsConfig> listener) {
+        this.file = file.toAbsolutePath();
+        this.listener = listener;
+    }
+
+    /** Starts the watcher on a daemon thread. */
+    public void start() throws IOException {
+        WatchService ws = file.getFileSystem().newWatchService();
+        file.getParent().register(ws,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        Thread t = new Thread(() -> loop(ws), "config-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void loop(WatchService ws) {
+        Path name = file.getFileName();
+        while (true) {
+            try {
+                WatchKey key = ws.take();
+                boolean hit = touches(key, name);
+
+                /* debounce: keep draining until the directory is quiet */
+                WatchKey more;
+                while ((more = ws.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    hit |= touches(more, name);
+                }
+                if (!hit || !Files.exists(file)) continue;
+
+                MetricsConfig next;
+                try {
+                    next = ConfigLoader.load(file);
+                } catch (IOException e) {
+                    System.err.println("Config reload skipped, " + name + " is invalid: " + e.getMessage());
+                    continue;
+                }
+                listener.accept(next);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Config reload error: " + e);
+            }
+        }
+    }
+
+    /** Consumes the key's events; true if one of them is about our file. */
+    private static boolean touches(WatchKey key, Path name) {
+        boolean hit = false;
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(ev.context())) hit = true;
+        }
+        key.reset();
+        return hit;
+    }
+}
@@ -1,5 +1,6 @@
 package config;
 
+import java.util.Objects;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 
 /**
@@ -10,19 +11,46 @@ import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
  * alertType :
  *   MAX – alert when value >= thresholdHigh, clear when value <= thresholdLow
  *   MIN – alert when value <= thresholdLow,  clear when value >= thresholdHigh
+ *
+ * Windowed rules (optional; the thresholds then apply to the rule value):
+ *   aggregate        – LAST (default) | AVG over windowMinutes |
+ *                      RATE = change per second across windowMinutes
+ *   windowMinutes    – window length for AVG / RATE (default 5)
+ *   sustainedSamples – raise only after K consecutive breaching samples (default 1)
+ *
+ * server – name of a {@link Server} to read from (optional, default server if absent)
  */
 public class Metric {
 
     public enum AlertType { MAX, MIN }
 
+    /** Value the thresholds are compared with */
+    public enum Aggregate { LAST, AVG, RATE }
+
+    /** Default window for AVG / RATE rules (minutes) */
+    public static final int DEFAULT_WINDOW_MINUTES = 5;
+
     @JacksonXmlProperty(localName = "host")
     private String host;
 
     @JacksonXmlProperty(localName = "key")
     private String key;
 
-    /** Filled later after itemId resolution */
-    private Long metricId;
+    /** Zabbix server name (optional; null = default server) */
+    @JacksonXmlProperty(localName = "server")
+    private String server;
+
+    /** Filled later after itemId resolution (may be set from a background resolver) */
+    private volatile Long metricId;
+
+    /** Set when a config reload removed this metric */
+    private volatile boolean retired;
+
+    /** Dense index into the alert state store (-1 = not registered) */
+    private int slot = -1;
+
+    /** Cached {@link #identityHash()} (0 = not computed yet) */
+    private long identityHash;
 
     /** Upper numeric bound (used either for trigger or clear depending on alertType) */
     @JacksonXmlProperty(localName = "thresholdHigh")
@@ -36,6 +64,26 @@ public class Metric {
     @JacksonXmlProperty(localName = "alertType")
     private AlertType alertType = AlertType.MAX;
 
+    /** Poll interval in seconds (optional, default = global poll period) */
+    @JacksonXmlProperty(localName = "pollInterval")
+    private Integer pollInterval;
+
+    /** Random ± spread in seconds applied to every reschedule (optional) */
+    @JacksonXmlProperty(localName = "jitter")
+    private Integer jitter;
+
+    /** Rule value: LAST / AVG / RATE (optional, default LAST) */
+    @JacksonXmlProperty(localName = "aggregate")
+    private Aggregate aggregate;
+
+    /** Window for AVG / RATE in minutes (optional) */
+    @JacksonXmlProperty(localName = "windowMinutes")
+    private Integer windowMinutes;
+
+    /** Consecutive breaching samples before an ALERT (optional) */
+    @JacksonXmlProperty(localName = "sustainedSamples")
+    private Integer sustainedSamples;
+
     public Metric() {}
 
     /* -------- getters / setters -------- */
@@ -45,6 +93,10 @@ public class Metric {
     public String getKey()                      { return key; }
     public void   setKey(String key)            { this.key = key; }
 
+    /** Server name, "" for the default server */
+    public String getServer()                   { return server != null ? server.trim() : ""; }
+    public void   setServer(String server)      { this.server = server; }
+
     public Long   getMetricId()                 { return metricId; }
     public void   setMetricId(Long id)          { this.metricId = id; }
 
@@ -57,6 +109,97 @@ public class Metric {
     public AlertType getAlertType()             { return alertType; }
     public void setAlertType(AlertType t)       { this.alertType = t; }
 
+    public Integer getPollInterval()            { return pollInterval; }
+    public void    setPollInterval(Integer sec) { this.pollInterval = sec; }
+
+    public Integer getJitter()                  { return jitter; }
+    public void    setJitter(Integer sec)       { this.jitter = sec; }
+
+    public Aggregate getAggregate()             { return aggregate != null ? aggregate : Aggregate.LAST; }
+    public void   setAggregate(Aggregate a)     { this.aggregate = a; }
+
+    public int    getWindowMinutes()            { return windowMinutes != null && windowMinutes > 0
+                                                         ? windowMinutes : DEFAULT_WINDOW_MINUTES; }
+    public void   setWindowMinutes(Integer m)   { this.windowMinutes = m; }
+
+    public int    getSustainedSamples()         { return sustainedSamples != null && sustainedSamples > 1
+                                                         ? sustainedSamples : 1; }
+    public void   setSustainedSamples(Integer k){ this.sustainedSamples = k; }
+
+    public boolean isRetired()                  { return retired; }
+    public void    setRetired(boolean r)        { this.retired = r; }
+
+    public int    getSlot()                     { return slot; }
+    public void   setSlot(int slot)             { this.slot = slot; }
+
     /* helpers */
     public boolean isMaxType() { return alertType == AlertType.MAX; }
+
+    /** True when the rule needs more than the newest value (window or sustained breach) */
+    public boolean isWindowed() {
+        return getAggregate() != Aggregate.LAST || getSustainedSamples() > 1;
+    }
+
+    /** (server, host, key) identity used to match metrics across config reloads */
+    public String identity() { return identity(getServer(), host, key); }
+
+    public static String identity(String server, String host, String key) {
+        return server.isEmpty() ? host + '\t' + key : server + '\t' + host + '\t' + key;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of {@link #identity()}: stable across processes and
+     * restarts (unlike String.hashCode spread), used for shard ownership.
+     */
+    public long identityHash() {
+        long h = identityHash;
+        if (h != 0) return h;
+        h = 0xcbf29ce484222325L;
+        String id = identity();
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        if (h == 0) h = 1;
+        return identityHash = h;
+    }
+
+    /**
+     * Alert state key: the itemId, tagged with the server in bits 48..62 so
+     * equal itemIds of different servers stay apart. The default server's tag
+     * is 0, so its keys (and journals written before servers existed) are
+     * plain itemIds. Null while unresolved.
+     */
+    public Long stateKey() {
+        Long id = metricId;
+        return id != null ? id | serverTag(getServer()) : null;
+    }
+
+    /** Server bits of a state key; 0 for the default server, also its ZABBIX DOWN key */
+    public static long serverTag(String server) {
+        return server.isEmpty() ? 0 : ((long) (server.hashCode() & 0x3FFF) + 1) << 48;
+    }
+
+    /** Server bits of a (non-negative) state key, as returned by {@link #serverTag} */
+    public static long tagOf(long stateKey) {
+        return stateKey & -(1L << 48);
+    }
+
+    /** True when thresholds, alertType, scheduling and rule settings are equal */
+    public boolean sameSettings(Metric o) {
+        return Double.compare(thresholdHigh, o.thresholdHigh) == 0
+                && Double.compare(thresholdLow, o.thresholdLow) == 0
+                && alertType == o.alertType
+                && Objects.equals(pollInterval, o.pollInterval)
+                && Objects.equals(jitter, o.jitter)
+                && getAggregate() == o.getAggregate()
+                && getWindowMinutes() == o.getWindowMinutes()
+                && getSustainedSamples() == o.getSustainedSamples();
+    }
+
+    /** Carries runtime resolution and state slot over from the metric this one replaces */
+    public void inheritState(Metric from) {
+        this.metricId = from.metricId;
+        this.slot     = from.slot;
+    }
 }
@@ -11,8 +11,22 @@ public class MetricsConfig {
     @JacksonXmlProperty(localName = "metric")
     private List<Metric> metricList;
 
+    @JacksonXmlElementWrapper(useWrapping = false)
+    @JacksonXmlProperty(localName = "rule")
+    private List<Rule> ruleList;
+
+    @JacksonXmlElementWrapper(useWrapping = false)
+    @JacksonXmlProperty(localName = "server")
+    private List<Server> serverList;
+
     public MetricsConfig() {}
 
     public List<Metric> getMetricList()         { return metricList; }
     public void setMetricList(List<Metric> list) { this.metricList = list; }
+
+    public List<Rule> getRuleList()             { return ruleList; }
+    public void setRuleList(List<Rule> list)    { this.ruleList = list; }
+
+    public List<Server> getServerList()         { return serverList; }
+    public void setServerList(List<Server> list) { this.serverList = list; }
 }
@@ -0,0 +1,63 @@
+package config;
+
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+
+/**
+ * Rule
+ * ----
+ * Composite condition over several metrics, e.g.
+ *   <rule>
+ *     <name>db1 disk almost full</name>
+ *     <expr>last("db1", "vfs.fs.size[/,used]") / last("db1", "vfs.fs.size[/,total]")</expr>
+ *     <thresholdHigh>0.9</thresholdHigh>
+ *     <thresholdLow>0.85</thresholdLow>
+ *   </rule>
+ *
+ * expr : numbers, + - * / ( ), abs(x), min(x, y, …), max(x, y, …) and references
+ *   last("host", "key")            – newest value of one configured metric
+ *   min|max|avg|sum|count("host glob", "key glob")
+ *                                  – over every configured metric that matches
+ *                                    (* and ? wildcards; NO DATA metrics are skipped)
+ * A host may be written "server:host" for the metrics of a named <server>;
+ * a plain host only matches metrics of the default server.
+ * Referenced metrics must be configured as <metric> so they are polled.
+ * The thresholds and alertType apply to the expression value, with the same
+ * hysteresis as a metric.
+ */
+public class Rule {
+
+    @JacksonXmlProperty(localName = "name")
+    private String name;
+
+    @JacksonXmlProperty(localName = "expr")
+    private String expr;
+
+    @JacksonXmlProperty(localName = "thresholdHigh")
+    private double thresholdHigh;
+
+    @JacksonXmlProperty(localName = "thresholdLow")
+    private double thresholdLow;
+
+    /** MAX or MIN (default = MAX) */
+    @JacksonXmlProperty(localName = "alertType")
+    private Metric.AlertType alertType = Metric.AlertType.MAX;
+
+    public Rule() {}
+
+    public String getName()                     { return name; }
+    public void   setName(String n)             { this.name = n; }
+
+    public String getExpr()                     { return expr; }
+    public void   setExpr(String e)             { this.expr = e; }
+
+    public double getThresholdHigh()            { return thresholdHigh; }
+    public void   setThresholdHigh(double v)    { this.thresholdHigh = v; }
+
+    public double getThresholdLow()             { return thresholdLow; }
+    public void   setThresholdLow(double v)     { this.thresholdLow = v; }
+
+    public Metric.AlertType getAlertType()      { return alertType; }
+    public void   setAlertType(Metric.AlertType t) { this.alertType = t; }
+
+    public boolean isMaxType() { return alertType == Metric.AlertType.MAX; }
+}
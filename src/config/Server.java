@@ -0,0 +1,65 @@
+package config;
+
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+
+/**
+ * Server
+ * ------
+ * An additional Zabbix server polled by the same alerter, e.g.
+ *   <server>
+ *     <name>dr</name>
+ *     <url>https://zabbix-dr.example.com/api_jsonrpc.php</url>
+ *     <tokenEnv>ZABBIX_DR_TOKEN</tokenEnv>
+ *     <maxInFlight>4</maxInFlight>
+ *   </server>
+ * A metric names it with <server>dr</server>; metrics without one use the
+ * default server from {@link Secrets}. Each server gets its own client
+ * (in-flight limit, circuit breaker), item cache and ZABBIX DOWN state.
+ *
+ * token    – API token; tokenEnv (environment variable name) takes precedence
+ * maxInFlight – optional, default = zabbix.maxInFlight
+ * Servers are read at startup; adding one needs a restart.
+ */
+public class Server {
+
+    @JacksonXmlProperty(localName = "name")
+    private String name;
+
+    @JacksonXmlProperty(localName = "url")
+    private String url;
+
+    @JacksonXmlProperty(localName = "token")
+    private String token;
+
+    @JacksonXmlProperty(localName = "tokenEnv")
+    private String tokenEnv;
+
+    @JacksonXmlProperty(localName = "maxInFlight")
+    private Integer maxInFlight;
+
+    public Server() {}
+
+    public String getName()                     { return name; }
+    public void   setName(String n)             { this.name = n; }
+
+    public String getUrl()                      { return url; }
+    public void   setUrl(String u)              { this.url = u; }
+
+    public String getToken()                    { return token; }
+    public void   setToken(String t)            { this.token = t; }
+
+    public String getTokenEnv()                 { return tokenEnv; }
+    public void   setTokenEnv(String e)         { this.tokenEnv = e; }
+
+    public Integer getMaxInFlight()             { return maxInFlight; }
+    public void    setMaxInFlight(Integer n)    { this.maxInFlight = n; }
+
+    /** tokenEnv's value when set, token otherwise */
+    public String resolveToken() {
+        if (tokenEnv != null && !tokenEnv.isBlank()) {
+            String v = System.getenv(tokenEnv.trim());
+            if (v != null && !v.isEmpty()) return v;
+        }
+        return token;
+    }
+}
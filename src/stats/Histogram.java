@@ -0,0 +1,132 @@
+package stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram
+ * ---------
+ * Lock-free latency histogram with log-linear buckets (HdrHistogram-style):
+ * every power of two is split into {@value #SUB_BUCKETS} linear sub-buckets,
+ * so a recorded value lands in a bucket at most ~25 % wide. Values are kept
+ * in microseconds from 1 µs to ~19 hours.
+ *
+ * {@link #record} is one array increment plus two LongAdder adds – no locks,
+ * no allocation. Exported Prometheus buckets ({@link #LE_SECONDS}) are sums of
+ * the internal buckets, so their edges carry the same ~25 % resolution.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS    = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXP     = 36;                                  // 2^36 µs ≈ 19 h
+    private static final int BUCKETS     = (MAX_EXP - SUB_BITS + 2) * SUB_BUCKETS;
+
+    /** Upper bounds (seconds) of the exported "le" buckets; +Inf is added */
+    static final double[] LE_SECONDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    /** Records a duration in nanoseconds. */
+    public void record(long nanos) {
+        long us = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(us));
+        count.increment();
+        sumMicros.add(us);
+    }
+
+    /** Records the time elapsed since a System.nanoTime() value. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() { return count.sum(); }
+
+    /** Point-in-time copy of the bucket counts */
+    public Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) c[i] = counts.get(i);
+        return new Snapshot(c, sumMicros.sum());
+    }
+
+    /** Immutable bucket counts; subtract two snapshots to look at a time window. */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long sumMicros;
+
+        private Snapshot(long[] counts, long sumMicros) { this.counts = counts; this.sumMicros = sumMicros; }
+
+        /** Recordings made after {@code earlier} was taken */
+        public Snapshot minus(Snapshot earlier) {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) c[i] = counts[i] - earlier.counts[i];
+            return new Snapshot(c, sumMicros - earlier.sumMicros);
+        }
+
+        public long count() {
+            long n = 0;
+            for (long c : counts) n += c;
+            return n;
+        }
+
+        /** Mean in seconds, 0 when empty */
+        public double mean() {
+            long n = count();
+            return n == 0 ? 0 : sumMicros / 1e6 / n;
+        }
+
+        /** Upper bucket bound (seconds) at quantile q (0..1), 0 when empty */
+        public double quantile(double q) {
+            long total = count();
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * total)), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return upperMicros(i) / 1e6;
+            }
+            return upperMicros(BUCKETS - 1) / 1e6;
+        }
+    }
+
+    /* ---------------- bucket math ---------------- */
+
+    static int index(long us) {
+        if (us < SUB_BUCKETS) return (int) us;
+        int exp = 63 - Long.numberOfLeadingZeros(us);
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (us >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Exclusive upper bound (µs) of bucket i */
+    static long upperMicros(int i) {
+        if (i < SUB_BUCKETS) return i + 1;
+        int exp = i / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = i % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BITS);
+    }
+
+    /* ---------------- Prometheus text format ---------------- */
+
+    void writeTo(StringBuilder out, String name, String labels) {
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        int i = 0;
+        for (double le : LE_SECONDS) {
+            long limit = Math.round(le * 1e6);
+            while (i < BUCKETS && upperMicros(i) <= limit) cumulative += counts.get(i++);
+            out.append(name).append("_bucket{").append(sep).append("le=\"")
+               .append(Registry.number(le)).append("\"} ").append(cumulative).append('\n');
+        }
+        while (i < BUCKETS) cumulative += counts.get(i++);
+        out.append(name).append("_bucket{").append(sep).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum").append(Registry.braces(labels)).append(' ')
+           .append(Registry.number(sumMicros.sum() / 1e6)).append('\n');
+        out.append(name).append("_count").append(Registry.braces(labels)).append(' ')
+           .append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,111 @@
+package stats;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry
+ * --------
+ * Process-wide set of instruments, rendered in the Prometheus text format
+ * (version 0.0.4) by {@link #scrape()}.<br>
+ * • histogram – {@link Histogram}, recorded on the hot path.<br>
+ * • counter   – LongAdder, incremented on the hot path.<br>
+ * • gauge     – LongSupplier, sampled only when scraped (also used for
+ *   counters that a component already keeps itself).
+ *
+ * Instruments are created once (usually into static fields); asking again for
+ * the same name + labels returns the existing one. A family is one metric
+ * name; each label set of it is a series.
+ */
+public final class Registry {
+
+    private static final Map<String, Family> families = new LinkedHashMap<>();
+
+    private Registry() {}
+
+    public static Histogram histogram(String name, String help, String labels) {
+        return (Histogram) series(name, help, "histogram", labels, Histogram::new);
+    }
+
+    public static LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) series(name, help, "counter", labels, LongAdder::new);
+    }
+
+    /** Registers (or replaces) a gauge sampled at scrape time. */
+    public static void gauge(String name, String help, String labels, LongSupplier value) {
+        synchronized (families) {
+            family(name, help, "gauge").series.put(labels, value);
+        }
+    }
+
+    /** Registers (or replaces) a counter kept elsewhere, sampled at scrape time. */
+    public static void counter(String name, String help, String labels, LongSupplier value) {
+        synchronized (families) {
+            family(name, help, "counter").series.put(labels, value);
+        }
+    }
+
+    /** All instruments in Prometheus text format */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        List<Family> list;
+        synchronized (families) {
+            list = new ArrayList<>(families.size());
+            for (Family f : families.values()) list.add(f.copy());
+        }
+        for (Family f : list) {
+            out.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+            for (Map.Entry<String, Object> s : f.series.entrySet()) {
+                Object v = s.getValue();
+                if (v instanceof Histogram) {
+                    ((Histogram) v).writeTo(out, f.name, s.getKey());
+                } else {
+                    long n = v instanceof LongAdder ? ((LongAdder) v).sum() : ((LongSupplier) v).getAsLong();
+                    out.append(f.name).append(braces(s.getKey())).append(' ').append(n).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /* ---------------- internals ---------------- */
+
+    private interface Factory { Object create(); }
+
+    private static Object series(String name, String help, String type, String labels, Factory factory) {
+        synchronized (families) {
+            return family(name, help, type).series.computeIfAbsent(labels, l -> factory.create());
+        }
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family f = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!f.type.equals(type))
+            throw new IllegalArgumentException(name + " is already registered as a " + f.type);
+        return f;
+    }
+
+    static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    static String number(double v) {
+        return v == Math.rint(v) && Math.abs(v) < 1e15
+                ? Long.toString((long) v)
+                : BigDecimal.valueOf(v).toPlainString();
+    }
+
+    private static final class Family {
+        final String name, help, type;
+        final Map<String, Object> series = new LinkedHashMap<>();   // labels → instrument
+        Family(String name, String help, String type) { this.name = name; this.help = help; this.type = type; }
+        Family copy() {
+            Family f = new Family(name, help, type);
+            f.series.putAll(series);
+            return f;
+        }
+    }
+}
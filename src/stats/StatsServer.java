@@ -0,0 +1,59 @@
+package stats;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * StatsServer
+ * -----------
+ * Embedded HTTP endpoint serving {@link Registry#scrape()} at /metrics for
+ * Prometheus. One daemon thread handles requests; scraping only reads the
+ * instruments, so it never blocks the poller.
+ */
+public final class StatsServer {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public StatsServer(String bindAddress, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "stats-http");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        System.out.printf("Metrics endpoint: http://%s:%d/metrics%n",
+                server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"GET".equals(ex.getRequestMethod()) && !"HEAD".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Registry.scrape().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
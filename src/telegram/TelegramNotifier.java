@@ -4,54 +4,265 @@ import config.Secrets;
 
 import java.io.*;
 import java.net.*;
+import java.net.http.*;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import stats.Histogram;
+import stats.Registry;
 
 /**
  * TelegramNotifier
  * ---------------
  * Simple class for sending messages to a Telegram group or user using the Bot API.
+ *
+ * {@link #sendMessage} only enqueues: a bounded queue is drained by one sender
+ * thread that reuses HTTP connections, waits out Telegram's retry_after on 429,
+ * keeps transient failures (network errors, 5xx) at the head of the queue and
+ * retries them with capped exponential backoff until the retry budget is spent,
+ * drops permanent ones (other 4xx: bad chat, token, message) at once, and coalesces a backlog
+ * (e.g. messages queued during a throttle window) into one multi-line message
+ * of at most {@value #MAX_MESSAGE_CHARS} characters.
  */
 public class TelegramNotifier {
+
+    /** Telegram Bot API limit for one message */
+    public static final int MAX_MESSAGE_CHARS = 4096;
+
+    /** Default outbound queue capacity (messages) */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /** Bot API base URL (overridable for a proxy or a local stand-in) */
+    public static final String DEFAULT_API_URL = "https://api.telegram.org";
+
+    /** Default time (sec) a message is retried through transient failures before it is dropped */
+    public static final int DEFAULT_RETRY_BUDGET_SEC = 3600;
+
+    private static final long BACKOFF_BASE_MS = 1000;
+    private static final long BACKOFF_MAX_MS  = 60_000;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /* ---- instrumentation ---- */
+    private static final Histogram SEND_LATENCY = Registry.histogram(
+            "zabbix_alerter_telegram_send_seconds", "Telegram sendMessage round-trip time", "");
+    private static final String FAIL_NAME = "zabbix_alerter_telegram_failures_total";
+    private static final String FAIL_HELP = "Failed Telegram delivery attempts";
+    private static final LongAdder FAIL_THROTTLED = Registry.counter(FAIL_NAME, FAIL_HELP, "reason=\"rate_limited\"");
+    private static final LongAdder FAIL_ERROR     = Registry.counter(FAIL_NAME, FAIL_HELP, "reason=\"error\"");
+    private static final LongAdder FAIL_REJECTED  = Registry.counter(FAIL_NAME, FAIL_HELP, "reason=\"rejected\"");
+
     private final String botToken;
     private final String chatId;
+    private final URI sendUri;
+    private final HttpClient http;
+
+    private final BlockingQueue<String> queue;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped   = new AtomicLong();
+
+    /** Print instead of sending (offline replay) */
+    private volatile boolean dryRun;
+    private volatile long retryBudgetMs = TimeUnit.SECONDS.toMillis(DEFAULT_RETRY_BUDGET_SEC);
 
     public TelegramNotifier(String botToken, String chatId) {
+        this(botToken, chatId, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public TelegramNotifier(String botToken, String chatId, int queueCapacity) {
+        this(botToken, chatId, queueCapacity, DEFAULT_API_URL);
+    }
+
+    /** @param apiUrl Bot API base URL, e.g. {@value #DEFAULT_API_URL} */
+    public TelegramNotifier(String botToken, String chatId, int queueCapacity, String apiUrl) {
         this.botToken = botToken;
         this.chatId = chatId;
+        this.sendUri = URI.create(String.format(
+                "%s/bot%s/sendMessage",
+                apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl,
+                botToken
+        ));
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Thread sender = new Thread(this::senderLoop, "telegram-sender");
+        sender.setDaemon(true);
+        sender.start();
     }
 
     /**
-     * Sends a text message to the configured chat.
+     * Queues a text message for the configured chat and returns immediately.
+     * When the queue is full the message is dropped (and counted).
      * @param message The text message to send.
-     * @throws IOException If HTTP request fails.
      */
-    public void sendMessage(String message) throws IOException {
-        String urlString = String.format(
-                "https://api.telegram.org/bot%s/sendMessage",
-                botToken
-        );
+    public void sendMessage(String message) {
+        if (dryRun) {
+            System.out.println("[TELEGRAM] " + message.replace("\n", "\n           "));
+            return;
+        }
+        if (!queue.offer(message)) {
+            dropped.incrementAndGet();
+            System.err.println("TG queue full, dropped: " + message);
+        }
+    }
+
+    /** true = messages are printed to stdout and never sent */
+    public void setDryRun(boolean dryRun) { this.dryRun = dryRun; }
+
+    /** How long a message is retried through network errors and 5xx before it is dropped */
+    public void setRetryBudgetSec(int sec) { this.retryBudgetMs = TimeUnit.SECONDS.toMillis(Math.max(0, sec)); }
+
+    /** Messages waiting to be sent */
+    public int  getQueueDepth() { return queue.size(); }
+
+    /** Messages delivered so far (a coalesced message counts every line it carries) */
+    public long getDelivered()  { return delivered.get(); }
+
+    /** Messages dropped: queue full, rejected by the API or retry budget spent */
+    public long getDropped()    { return dropped.get(); }
+
+    /* ---------------- sender ---------------- */
+
+    private void senderLoop() {
+        StringBuilder pending = new StringBuilder();
+        int count = 0;                  // messages carried by "pending"
+        int attempts = 0;               // transient failures of "pending"
+        long failingSince = 0;          // first of them (ms)
+
+        while (true) {
+            try {
+                if (count == 0) {
+                    pending.append(fit(queue.take()));
+                    count = 1;
+                }
+
+                /* coalesce whatever queued up behind it */
+                String next;
+                while ((next = queue.peek()) != null
+                        && pending.length() + 1 + fit(next).length() <= MAX_MESSAGE_CHARS) {
+                    pending.append('\n').append(fit(queue.poll()));
+                    count++;
+                }
+
+                long t0 = System.nanoTime();
+                try {
+                    deliver(pending.toString());
+                    SEND_LATENCY.recordSince(t0);
+                    delivered.addAndGet(count);
+                    pending.setLength(0);
+                    count = 0;
+                    attempts = 0;
+                } catch (RejectedException e) {
+                    SEND_LATENCY.recordSince(t0);
+                    FAIL_REJECTED.increment();
+                    System.err.printf("TG send rejected, dropped %d message(s): %s%n", count, e.getMessage());
+                    dropped.addAndGet(count);
+                    pending.setLength(0);
+                    count = 0;
+                    attempts = 0;
+                } catch (RateLimitedException e) {
+                    SEND_LATENCY.recordSince(t0);
+                    FAIL_THROTTLED.increment();
+                    System.err.printf("TG throttled, retry after %d s (%d queued)%n",
+                            e.retryAfterSec, queue.size());
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(e.retryAfterSec));
+                } catch (IOException e) {
+                    SEND_LATENCY.recordSince(t0);
+                    FAIL_ERROR.increment();
+                    long now = System.currentTimeMillis();
+                    if (attempts++ == 0) failingSince = now;
+                    if (now - failingSince >= retryBudgetMs) {
+                        System.err.printf("TG send error, dropped %d message(s) after %d attempts in %d s: %s%n",
+                                count, attempts, (now - failingSince) / 1000, e.getMessage());
+                        dropped.addAndGet(count);
+                        pending.setLength(0);
+                        count = 0;
+                        attempts = 0;
+                    } else {
+                        if (attempts == 1) System.err.printf("TG send error, retrying (%d queued): %s%n",
+                                queue.size(), e.getMessage());
+                        Thread.sleep(Math.min(BACKOFF_BASE_MS << Math.min(attempts - 1, 16), BACKOFF_MAX_MS));
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {          // a bug must not stop delivery for good
+                FAIL_ERROR.increment();
+                System.err.printf("TG sender error, dropped %d message(s): %s%n", count, e);
+                dropped.addAndGet(count);
+                pending.setLength(0);
+                count = 0;
+                attempts = 0;
+            }
+        }
+    }
+
+    /** Truncates a single message to the Telegram limit. */
+    private static String fit(String message) {
+        return message.length() <= MAX_MESSAGE_CHARS
+                ? message
+                : message.substring(0, MAX_MESSAGE_CHARS - 3) + "...";
+    }
+
+    /**
+     * Sends one text message to the configured chat (blocking).
+     * @throws RateLimitedException on HTTP 429
+     * @throws RejectedException on any other 4xx (retrying cannot help)
+     * @throws IOException If HTTP request fails or Telegram answers 5xx.
+     */
+    private void deliver(String message) throws IOException, InterruptedException {
         String data = String.format("chat_id=%s&text=%s",
                 URLEncoder.encode(chatId, StandardCharsets.UTF_8),
                 URLEncoder.encode(message, StandardCharsets.UTF_8)
         );
 
-        byte[] postData = data.getBytes(StandardCharsets.UTF_8);
-        URL url = new URL(urlString);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setDoOutput(true);
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        conn.setRequestProperty("Charset", "utf-8");
-        conn.setRequestProperty("Content-Length", Integer.toString(postData.length));
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(postData);
-        }
+        HttpRequest req = HttpRequest.newBuilder(sendUri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/x-www-form-urlencoded; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofString(data, StandardCharsets.UTF_8))
+                .build();
 
-        int responseCode = conn.getResponseCode();
+        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        int responseCode = resp.statusCode();
+        if (responseCode == 429) {
+            throw new RateLimitedException(retryAfter(resp));
+        }
+        if (responseCode >= 400 && responseCode < 500) {
+            throw new RejectedException("Telegram API error: " + responseCode + " - " + resp.body());
+        }
         if (responseCode != 200) {
-            String err = new String(conn.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
-            throw new IOException("Telegram API error: " + responseCode + " - " + err);
+            throw new IOException("Telegram API error: " + responseCode + " - " + resp.body());
+        }
+    }
+
+    /** retry_after from the JSON body ("parameters"), else the Retry-After header, else 5 s */
+    private static long retryAfter(HttpResponse<String> resp) {
+        try {
+            JsonNode ra = mapper.readTree(resp.body()).path("parameters").path("retry_after");
+            if (ra.canConvertToLong()) return Math.max(1, ra.asLong());
+        } catch (IOException ignored) {}
+        return resp.headers().firstValueAsLong("Retry-After").orElse(5);
+    }
+
+    /** Permanent 4xx from the Bot API (bad chat, token or message) */
+    private static final class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        RejectedException(String message) { super(message); }
+    }
+
+    /** HTTP 429 from the Bot API */
+    private static final class RateLimitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final long retryAfterSec;
+        RateLimitedException(long retryAfterSec) {
+            super("Telegram API error: 429 - retry after " + retryAfterSec + " s");
+            this.retryAfterSec = retryAfterSec;
         }
     }
 }
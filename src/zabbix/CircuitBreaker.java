@@ -0,0 +1,86 @@
+package zabbix;
+
+import java.util.function.Consumer;
+
+/**
+ * Stops requests to an unhealthy Zabbix frontend.
+ *   CLOSED    – requests pass; failureThreshold consecutive failures open it.
+ *   OPEN      – requests fail fast; after the cooldown the next request is
+ *               let through as the single probe (HALF_OPEN).
+ *   HALF_OPEN – only the probe is out; its success closes the breaker, its
+ *               failure reopens it with a doubled cooldown (up to maxCooldown).
+ * Outcomes of requests sent before the breaker opened are ignored.
+ * The listener is told about CLOSED → OPEN (false) and → CLOSED (true).
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** What {@link #acquire()} let through; passed back to {@link #record} */
+    enum Permit { NORMAL, PROBE }
+
+    private final int failureThreshold;
+    private final long baseCooldownMs;
+    private final long maxCooldownMs;
+    private volatile Consumer<Boolean> listener = healthy -> {};
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long cooldownMs;
+    private long retryAt;
+
+    CircuitBreaker(int failureThreshold, long cooldownMs, long maxCooldownMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseCooldownMs = Math.max(1, cooldownMs);
+        this.maxCooldownMs = Math.max(this.baseCooldownMs, maxCooldownMs);
+        this.cooldownMs = this.baseCooldownMs;
+    }
+
+    void setListener(Consumer<Boolean> l) { this.listener = l; }
+
+    synchronized State state() { return state; }
+
+    /** @return the permit for a request, null when it must fail fast */
+    synchronized Permit acquire() {
+        switch (state) {
+            case CLOSED:
+                return Permit.NORMAL;
+            case OPEN:
+                if (System.currentTimeMillis() < retryAt) return null;
+                state = State.HALF_OPEN;
+                return Permit.PROBE;
+            default:
+                return null;
+        }
+    }
+
+    void record(Permit p, boolean ok) {
+        Boolean changed = null;
+        synchronized (this) {
+            if (p == Permit.PROBE) {
+                if (ok) {
+                    state = State.CLOSED;
+                    failures = 0;
+                    cooldownMs = baseCooldownMs;
+                    changed = Boolean.TRUE;
+                } else {
+                    cooldownMs = Math.min(maxCooldownMs, cooldownMs * 2);
+                    open();
+                }
+            } else if (state == State.CLOSED) {
+                if (ok) {
+                    failures = 0;
+                } else if (++failures >= failureThreshold) {
+                    open();
+                    changed = Boolean.FALSE;
+                }
+            }
+        }
+        if (changed != null) listener.accept(changed);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        retryAt = System.currentTimeMillis() + cooldownMs;
+    }
+}
@@ -0,0 +1,250 @@
+package zabbix;
+
+import config.Metric;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ItemResolver
+ * ------------
+ * Resolves (host, key) → itemId for all metrics.<br>
+ * • One item.get per host carrying all of that host's keys.<br>
+ * • On-disk cache (host, key) → (itemId, value_type), applied instantly at boot
+ *   and revalidated in the background.<br>
+ * • Cache misses are resolved in the background too, so polling starts with
+ *   the cached metrics and picks the others up as they resolve.<br>
+ * • Metrics still unresolved are retried on a backoff schedule.
+ *
+ * Cache file format: one line per item, tab-separated
+ * <pre>host  key  itemId  value_type</pre>
+ */
+public class ItemResolver {
+
+    /** Delay (sec) before cached itemIds are revalidated against Zabbix */
+    private static final long REVALIDATE_DELAY_SEC = 30;
+
+    /** Retry backoff for unresolved metrics: 30 s, doubled each attempt, capped at 15 min */
+    private static final long RETRY_BASE_SEC = 30;
+    private static final long RETRY_MAX_SEC  = 15 * 60;
+
+    private final ZabbixClient client;
+    private final Path cacheFile;
+    private final ExecutorService hostPool;
+    private final ScheduledExecutorService scheduler;
+
+    /** key = host + '\t' + key */
+    private final ConcurrentMap<String, CachedItem> cache = new ConcurrentHashMap<>();
+
+    private volatile List<Metric> metrics = Collections.emptyList();
+    private int retryAttempt = 0;
+
+    public ItemResolver(ZabbixClient client, Path cacheFile) {
+        this.client    = client;
+        this.cacheFile = cacheFile;
+        this.hostPool  = Executors.newFixedThreadPool(4, daemon("resolver"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("resolver-sched"));
+    }
+
+    /**
+     * Startup sequence: apply cached ids and return; cache misses are resolved
+     * in the background at once, cached ids are revalidated a little later, and
+     * retries are scheduled.
+     * @return completes when the first resolution of the cache misses is done
+     */
+    public CompletableFuture<Void> start(List<Metric> metrics) {
+        this.metrics = metrics;
+
+        List<Metric> cached = new ArrayList<>();
+        List<Metric> missing = new ArrayList<>();
+        loadCache();
+        for (Metric m : metrics) {
+            CachedItem ci = cache.get(cacheKey(m.getHost(), m.getKey()));
+            if (ci != null) {
+                m.setMetricId(ci.itemId);
+                client.setValueType(ci.itemId, ci.valueType);
+                cached.add(m);
+            } else {
+                missing.add(m);
+            }
+        }
+        System.out.printf("Item cache: %d of %d metrics resolved from %s%n",
+                cached.size(), metrics.size(), cacheFile.getFileName());
+
+        CompletableFuture<Void> resolved = new CompletableFuture<>();
+        scheduler.execute(() -> {
+            try {
+                if (!missing.isEmpty()) {
+                    resolve(missing);
+                    saveCache();
+                }
+            } finally {
+                resolved.complete(null);
+            }
+        });
+        if (!cached.isEmpty()) {                    // after startup, not competing with it
+            scheduler.schedule(() -> {
+                resolve(cached);
+                saveCache();
+            }, REVALIDATE_DELAY_SEC, TimeUnit.SECONDS);
+        }
+        scheduleRetry();
+        return resolved;
+    }
+
+    /** Replaces the list covered by background retries (config reload). */
+    public void setMetrics(List<Metric> metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Resolves the given metrics now (blocking, grouped by host) and updates the cache file. */
+    public void resolveNow(List<Metric> list) {
+        resolve(list);
+        saveCache();
+    }
+
+    /* ---------------- resolution ---------------- */
+
+    /** Resolves the given metrics grouped by host, one item.get per host; waits until done. */
+    private void resolve(List<Metric> list) {
+        Map<String, List<Metric>> byHost = new LinkedHashMap<>();
+        for (Metric m : list) byHost.computeIfAbsent(m.getHost(), h -> new ArrayList<>()).add(m);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<String, List<Metric>> e : byHost.entrySet()) {
+            futures.add(hostPool.submit(() -> resolveHost(e.getKey(), e.getValue())));
+        }
+
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ignored) {
+                // logged in resolveHost
+            }
+        }
+    }
+
+    private void resolveHost(String host, List<Metric> hostMetrics) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Metric m : hostMetrics) keys.add(m.getKey());
+
+        Map<String, Long> ids;
+        try {
+            ids = client.resolveItemIds(host, keys);
+        } catch (Exception e) {
+            System.err.printf("Resolve error %s (%d keys): %s%n", host, keys.size(), e.getMessage());
+            return;                                 // keep cached ids on transient errors
+        }
+
+        for (Metric m : hostMetrics) {
+            Long id = ids.get(m.getKey());
+            Long old = m.getMetricId();
+            String ck = cacheKey(host, m.getKey());
+            if (id != null) {
+                Integer type = client.getValueType(id);
+                cache.put(ck, new CachedItem(id, type != null ? type : 0));
+            } else {
+                cache.remove(ck);
+            }
+            m.setMetricId(id);
+            if (!Objects.equals(old, id)) {
+                System.out.printf("Host=%s Key=%s ⇒ itemId=%s%n",
+                        host, m.getKey(), id != null ? id : "NOT FOUND");
+            }
+        }
+    }
+
+    /** Retries unresolved metrics with exponential backoff until all are resolved. */
+    private void scheduleRetry() {
+        long delay = Math.min(RETRY_BASE_SEC << Math.min(retryAttempt, 20), RETRY_MAX_SEC);
+        scheduler.schedule(() -> {
+            List<Metric> unresolved = new ArrayList<>();
+            for (Metric m : metrics) if (m.getMetricId() == null) unresolved.add(m);
+            if (!unresolved.isEmpty()) {
+                retryAttempt++;
+                resolve(unresolved);
+                saveCache();
+            } else {
+                retryAttempt = 0;
+            }
+            scheduleRetry();
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    /* ---------------- on-disk cache ---------------- */
+
+    private void loadCache() {
+        if (!Files.exists(cacheFile)) return;
+        try (BufferedReader r = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] f = line.split("\t");
+                if (f.length != 4) continue;
+                try {
+                    cache.put(cacheKey(f[0], f[1]),
+                            new CachedItem(Long.parseLong(f[2]), Integer.parseInt(f[3])));
+                } catch (NumberFormatException ignored) {}
+            }
+        } catch (IOException e) {
+            System.err.println("Item cache read error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the cache to a temp file and atomically moves it into place. The
+     * temp name is unique, so alerter nodes sharing a directory can both save.
+     */
+    private synchronized void saveCache() {
+        Path tmp;
+        try {
+            tmp = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), cacheFile.getFileName() + ".", ".tmp");
+        } catch (IOException e) {
+            System.err.println("Item cache write error: " + e.getMessage());
+            return;
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, CachedItem> e : new TreeMap<>(cache).entrySet()) {
+                w.write(e.getKey());
+                w.write('\t');
+                w.write(Long.toString(e.getValue().itemId));
+                w.write('\t');
+                w.write(Integer.toString(e.getValue().valueType));
+                w.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Item cache write error: " + e.getMessage());
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+            return;
+        }
+        try {
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Item cache write error: " + e.getMessage());
+        }
+    }
+
+    private static String cacheKey(String host, String key) {
+        return host + '\t' + key;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Cached resolution result */
+    private static final class CachedItem {
+        final long itemId;
+        final int  valueType;
+        CachedItem(long itemId, int valueType) { this.itemId = itemId; this.valueType = valueType; }
+    }
+}
@@ -0,0 +1,304 @@
+package zabbix;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.fasterxml.jackson.core.*;
+
+/**
+ * JsonRpcCodec
+ * ------------
+ * Streaming Zabbix JSON-RPC codec on Jackson's JsonParser / JsonGenerator.<br>
+ * • Requests: a pre-encoded per-method envelope prefix plus a counter-based id;
+ *   only the params object is generated per call.<br>
+ * • Responses: "result" records are read straight from the InputStream into
+ *   primitive fields; numeric strings ("123", "0,5") are parsed from the
+ *   parser's char buffer without creating Strings.<br>
+ * • A JSON-RPC "error" member is raised as {@link ApiException}.
+ */
+public final class JsonRpcCodec {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** Powers of ten exactly representable as double (fast-path decimal parsing) */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private static final byte[] PARAMS_FIELD = ",\"params\":".getBytes(StandardCharsets.UTF_8);
+
+    private final String apiToken;
+    private final AtomicLong nextId = new AtomicLong();
+
+    /** key = method, value = {"jsonrpc":"2.0","method":…,"auth":…,"id": */
+    private final ConcurrentMap<String, byte[]> prefixes = new ConcurrentHashMap<>();
+
+    /** Per-thread scratch buffer for request encoding */
+    private final ThreadLocal<ByteArrayOutputStream> scratch =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(1024));
+
+    public JsonRpcCodec(String apiToken) {
+        this.apiToken = apiToken;
+    }
+
+    /* ---------------- requests ---------------- */
+
+    /** Writes the "params" object of a request. */
+    @FunctionalInterface
+    public interface ParamsWriter {
+        void write(JsonGenerator g) throws IOException;
+    }
+
+    /** Encodes one request; the returned array is owned by the caller. */
+    public byte[] encode(String method, ParamsWriter params) throws IOException {
+        ByteArrayOutputStream buf = scratch.get();
+        buf.reset();
+        buf.write(prefixes.computeIfAbsent(method, this::prefix));
+        writeAsciiLong(buf, nextId.incrementAndGet());
+        buf.write(PARAMS_FIELD);
+        try (JsonGenerator g = FACTORY.createGenerator(buf)) {
+            g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            params.write(g);
+        }
+        buf.write('}');
+        return buf.toByteArray();
+    }
+
+    private byte[] prefix(String method) {
+        StringWriter w = new StringWriter();
+        try (JsonGenerator g = FACTORY.createGenerator(w)) {
+            g.writeStartObject();
+            g.writeStringField("jsonrpc", "2.0");
+            g.writeStringField("method", method);
+            g.writeStringField("auth", apiToken);
+            g.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String s = w.toString();                               // {…} → {… ,"id":
+        return (s.substring(0, s.length() - 1) + ",\"id\":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeAsciiLong(ByteArrayOutputStream out, long v) {
+        byte[] digits = new byte[20];
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    /* ---------------- responses ---------------- */
+
+    /** Receives one history.get record. */
+    @FunctionalInterface
+    public interface HistorySink {
+        /** @param value NaN when the record is not numeric */
+        void accept(long itemId, long clock, double value);
+    }
+
+    /** Receives one item.get record; the record instance is reused between calls. */
+    @FunctionalInterface
+    public interface ItemSink {
+        void accept(ItemRecord item);
+    }
+
+    /** Mutable item.get record; fields absent from the response keep their reset value. */
+    public static final class ItemRecord {
+        public long   itemId;
+        public int    valueType = -1;
+        public String key;
+        public String host;
+        public double lastValue = Double.NaN;
+        public long   lastClock;
+
+        void reset() {
+            itemId = 0; valueType = -1; key = null; host = null;
+            lastValue = Double.NaN; lastClock = 0;
+        }
+    }
+
+    /** Streams history.get records (itemid / clock / value) into the sink. */
+    public static void readHistory(InputStream in, HistorySink sink) throws IOException {
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (!openResult(p)) return;
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                long itemId = 0, clock = 0;
+                double value = Double.NaN;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String f = p.currentName();
+                    p.nextToken();
+                    switch (f) {
+                        case "itemid": itemId = longValue(p);   break;
+                        case "clock":  clock  = longValue(p);   break;
+                        case "value":  value  = doubleValue(p); break;
+                        default:       p.skipChildren();
+                    }
+                }
+                sink.accept(itemId, clock, value);
+            }
+            drain(p);
+        }
+    }
+
+    /** Streams item.get records (itemid, key_, value_type, lastvalue, lastclock, host) into the sink. */
+    public static void readItems(InputStream in, ItemSink sink) throws IOException {
+        ItemRecord rec = new ItemRecord();
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (!openResult(p)) return;
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                rec.reset();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String f = p.currentName();
+                    p.nextToken();
+                    switch (f) {
+                        case "itemid":     rec.itemId    = longValue(p);        break;
+                        case "value_type": rec.valueType = (int) longValue(p);  break;
+                        case "key_":       rec.key       = p.getText();         break;
+                        case "lastvalue":  rec.lastValue = doubleValue(p);      break;
+                        case "lastclock":  rec.lastClock = longValue(p);        break;
+                        case "host":       rec.host      = p.getText();         break;
+                        case "hosts":      rec.host      = firstHost(p);        break;
+                        default:           p.skipChildren();
+                    }
+                }
+                sink.accept(rec);
+            }
+            drain(p);
+        }
+    }
+
+    /**
+     * Advances to the "result" array.
+     * @return false if the response has no array result
+     * @throws IOException on a JSON-RPC error member
+     */
+    private static boolean openResult(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Zabbix: malformed JSON-RPC response");
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("result".equals(name) && t == JsonToken.START_ARRAY) return true;
+            if ("error".equals(name)) throw readError(p);
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    private static ApiException readError(JsonParser p) throws IOException {
+        String code = "?", message = "", data = "";
+        if (p.currentToken() == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                p.nextToken();
+                switch (f) {
+                    case "code":    code    = p.getText(); break;
+                    case "message": message = p.getText(); break;
+                    case "data":    data    = p.getText(); break;
+                    default:        p.skipChildren();
+                }
+            }
+        }
+        return new ApiException("Zabbix API error " + code + ": " + message + (data.isEmpty() ? "" : " " + data));
+    }
+
+    /** "hosts": [{"host": "..."}] → first host name */
+    private static String firstHost(JsonParser p) throws IOException {
+        String host = null;
+        if (p.currentToken() != JsonToken.START_ARRAY) { p.skipChildren(); return null; }
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String f = p.currentName();
+                p.nextToken();
+                if (host == null && "host".equals(f)) host = p.getText();
+                else p.skipChildren();
+            }
+        }
+        return host;
+    }
+
+    /** Consumes the rest of the envelope so the connection can be reused. */
+    private static void drain(JsonParser p) throws IOException {
+        while (p.nextToken() != null) { /* skip */ }
+    }
+
+    /* ---------------- primitive parsing ---------------- */
+
+    private static long longValue(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NUMBER_INT) return p.getLongValue();
+        if (t != JsonToken.VALUE_STRING) { p.skipChildren(); return 0; }
+        return parseLong(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+    }
+
+    private static double doubleValue(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.VALUE_NUMBER_INT || t == JsonToken.VALUE_NUMBER_FLOAT) return p.getDoubleValue();
+        if (t != JsonToken.VALUE_STRING) { p.skipChildren(); return Double.NaN; }
+        return parseDouble(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+    }
+
+    static long parseLong(char[] c, int off, int len) {
+        long v = 0;
+        boolean neg = len > 0 && c[off] == '-';
+        for (int i = neg ? off + 1 : off, end = off + len; i < end; i++) {
+            int d = c[i] - '0';
+            if (d < 0 || d > 9) return 0;
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * Decimal parser for plain "[-]digits[.,digits]" values (',' accepted as decimal
+     * separator). Exact when the digits fit in 2^53 and there are at most 22 fraction
+     * digits; anything else falls back to Double.parseDouble. Returns NaN for text.
+     */
+    static double parseDouble(char[] c, int off, int len) {
+        int i = off, end = off + len;
+        boolean neg = false;
+        if (i < end && (c[i] == '-' || c[i] == '+')) neg = c[i++] == '-';
+        long mant = 0;
+        int digits = 0, frac = -1;
+        boolean any = false;
+        for (; i < end; i++) {
+            char ch = c[i];
+            if (ch >= '0' && ch <= '9') {
+                any = true;
+                if (mant == 0 && ch == '0' && frac < 0) continue;     // leading zeros
+                if (++digits > 18) return slowParse(c, off, len);
+                mant = mant * 10 + (ch - '0');
+                if (frac >= 0) frac++;
+            } else if ((ch == '.' || ch == ',') && frac < 0) {
+                frac = 0;
+            } else {
+                return slowParse(c, off, len);                     // exponent, text, …
+            }
+        }
+        if (!any) return Double.NaN;
+        if (frac < 0) frac = 0;
+        if (mant > (1L << 53) || frac > 22) return slowParse(c, off, len);
+        double v = frac == 0 ? mant : mant / POW10[frac];
+        return neg ? -v : v;
+    }
+
+    private static double slowParse(char[] c, int off, int len) {
+        try {
+            return Double.parseDouble(new String(c, off, len).replace(',', '.'));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * A well-formed JSON-RPC error response: the frontend is up and answered,
+     * the request itself was refused (bad params, permissions, expired token).
+     */
+    public static final class ApiException extends IOException {
+        private static final long serialVersionUID = 1L;
+        ApiException(String message) { super(message); }
+    }
+}
@@ -0,0 +1,41 @@
+package zabbix;
+
+import alerter.MetricPoller;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * LastValueSource
+ * ---------------
+ * Reads newest values with item.get (lastvalue / lastclock) instead of
+ * history.get: one request per 500 items, answered from Zabbix's value cache,
+ * so polling no longer queries the history tables. Windowed rules still need
+ * every point and read them through the client's history.get.
+ * Select with zabbix.source=lastvalue.
+ */
+public final class LastValueSource implements MetricSource {
+
+    private final ZabbixClient client;
+
+    public LastValueSource(ZabbixClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, MetricPoller.ZabbixValue>> getLastValuesAsync(Collection<Long> itemIds) {
+        return client.getItemLastValuesAsync(itemIds);
+    }
+
+    @Override
+    public CompletableFuture<Void> readHistorySinceAsync(Collection<Long> itemIds, long timeFrom,
+                                                         JsonRpcCodec.HistorySink sink) {
+        return client.readHistorySinceAsync(itemIds, timeFrom, sink);
+    }
+
+    @Override
+    public int getHistoryWindowSec() {
+        return client.getHistoryWindowSec();
+    }
+}
@@ -0,0 +1,43 @@
+package zabbix;
+
+import alerter.MetricPoller;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * MetricSource
+ * ------------
+ * Where the poller reads item values from:
+ *   • {@link ZabbixClient}    – history.get on the history tables (default);
+ *   • {@link LastValueSource} – item.get lastvalue / lastclock, served from
+ *                               Zabbix's value cache without touching the tables;
+ *   • {@link ReplaySource}    – a recorded time series file played back at
+ *                               accelerated speed, offline.
+ * Reads are asynchronous and batched. The newest value is returned whatever
+ * its age; an item without any data is absent from the result.
+ */
+public interface MetricSource {
+
+    /** Newest value and clock of every given item that has one */
+    CompletableFuture<Map<Long, MetricPoller.ZabbixValue>> getLastValuesAsync(Collection<Long> itemIds);
+
+    /**
+     * Every point with clock >= timeFrom of the given items, oldest first per
+     * item, streamed into the sink (windowed rules).
+     */
+    CompletableFuture<Void> readHistorySinceAsync(Collection<Long> itemIds, long timeFrom,
+                                                  JsonRpcCodec.HistorySink sink);
+
+    /**
+     * Look-back window (sec) of batched reads; for windowed rules and pushed
+     * values, a newest point older than this counts as no data.
+     */
+    int getHistoryWindowSec();
+
+    /** Current time of the data (epoch s); the wall clock except for a replay */
+    default long nowSec() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,281 @@
+package zabbix;
+
+import alerter.MetricPoller;
+import config.Metric;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ReplaySource
+ * ------------
+ * Plays a recorded time series back instead of reading Zabbix, on a virtual
+ * clock that starts at the first recorded point. The poller steps it one
+ * second per wheel tick ({@link MetricPoller#setReplay}), at most {@code speed}
+ * times faster than the wall clock. Each poll sees what Zabbix would have
+ * returned at that virtual time (windowed rules get every point), so days of
+ * real data can be evaluated against new thresholds in minutes, offline. At
+ * the end of the recording the clock stops on the last point.
+ *
+ * File: gzip-compressed (or plain) text, one point per line, tab-separated
+ * <pre>clock  host  key  value</pre>
+ * '#' lines are comments; lines may come in any order. {@link #record} writes
+ * one from Zabbix history. Metrics are bound by (host, key) with synthetic
+ * itemIds ({@link #bind}), so no Zabbix connection is needed.
+ * Series are held in memory as primitive arrays (16 bytes per point).
+ */
+public final class ReplaySource implements MetricSource {
+
+    /** Synthetic itemIds start here */
+    private static final long FIRST_ID = 1;
+
+    private final double speed;
+    private final long firstClock;
+    private final long lastClock;
+    private volatile int historyWindowSec = 600;
+
+    /** key = host + '\t' + key */
+    private final Map<String, Long> idOf = new HashMap<>();
+    /** itemId - FIRST_ID → series */
+    private final List<Series> series = new ArrayList<>();
+
+    /** Wall-clock start (ns) of the playback, set by the first {@link #pacedSec} */
+    private volatile long startNanos;
+    /** Virtual clock (epoch s), stepped by the poller */
+    private volatile long now;
+    private volatile boolean finished;
+
+    /** Points of one item, sorted by clock */
+    private static final class Series {
+        long[] clocks = new long[16];
+        double[] values = new double[16];
+        int size;
+
+        void add(long clock, double value) {
+            if (size == clocks.length) {
+                clocks = Arrays.copyOf(clocks, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            clocks[size] = clock;
+            values[size] = value;
+            size++;
+        }
+
+        /** Sorts by clock if the file was not in order */
+        void sort() {
+            for (int i = 1; i < size; i++) {
+                if (clocks[i] >= clocks[i - 1]) continue;
+                Integer[] idx = new Integer[size];
+                for (int k = 0; k < size; k++) idx[k] = k;
+                long[] c = clocks;
+                Arrays.sort(idx, Comparator.comparingLong(k -> c[k]));
+                long[] nc = new long[size];
+                double[] nv = new double[size];
+                for (int k = 0; k < size; k++) {
+                    nc[k] = clocks[idx[k]];
+                    nv[k] = values[idx[k]];
+                }
+                clocks = nc;
+                values = nv;
+                return;
+            }
+        }
+
+        /** Index of the last point with clock <= t, -1 if none */
+        int floor(long t) {
+            int lo = 0, hi = size - 1, r = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (clocks[mid] <= t) {
+                    r = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return r;
+        }
+    }
+
+    private ReplaySource(double speed, long firstClock, long lastClock) {
+        this.speed = speed;
+        this.firstClock = firstClock;
+        this.lastClock = lastClock;
+        this.now = firstClock;
+    }
+
+    /**
+     * Reads a recording.
+     * @param speed virtual seconds per wall-clock second (e.g. 3600 = one hour per second)
+     * @throws IOException on a read error or a malformed line
+     */
+    public static ReplaySource load(Path file, double speed) throws IOException {
+        Map<String, Series> byName = new LinkedHashMap<>();
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        int lineNo = 0;
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                String[] f = line.split("\t", -1);
+                if (f.length != 4) throw new IOException(file + ":" + lineNo + ": expected clock, host, key, value");
+                long clock;
+                double value;
+                try {
+                    clock = Long.parseLong(f[0].trim());
+                    value = Double.parseDouble(f[3].trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNo + ": " + e.getMessage());
+                }
+                byName.computeIfAbsent(f[1] + '\t' + f[2], k -> new Series()).add(clock, value);
+                first = Math.min(first, clock);
+                last = Math.max(last, clock);
+            }
+        }
+        if (byName.isEmpty()) throw new IOException(file + ": no points");
+
+        ReplaySource src = new ReplaySource(speed > 0 ? speed : 1, first, last);
+        for (Map.Entry<String, Series> e : byName.entrySet()) {
+            e.getValue().sort();
+            src.idOf.put(e.getKey(), FIRST_ID + src.series.size());
+            src.series.add(e.getValue());
+        }
+        System.out.printf("Replay: %d series, %d line(s), %s .. %s at %.0fx%n",
+                src.series.size(), lineNo, new Date(first * 1000), new Date(last * 1000), src.speed);
+        return src;
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        in.mark(2);
+        int b1 = in.read(), b2 = in.read();
+        in.reset();
+        return b1 == 0x1f && b2 == 0x8b ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    /**
+     * Gives every metric recorded in the file its synthetic itemId; the others
+     * stay unresolved (and are skipped by the poller).
+     * @return number of metrics bound
+     */
+    public int bind(List<Metric> metrics) {
+        int bound = 0;
+        for (Metric m : metrics) {
+            Long id = idOf.get(m.getHost() + '\t' + m.getKey());
+            m.setMetricId(id);
+            if (id != null) bound++;
+            else System.out.printf("Replay: no data for Host=%s Key=%s%n", m.getHost(), m.getKey());
+        }
+        return bound;
+    }
+
+    /* ---------------- MetricSource ---------------- */
+
+    @Override
+    public long nowSec() {
+        return now;
+    }
+
+    /** How far the virtual clock may run by now at the replay speed (the wall clock starts on the first call) */
+    public long pacedSec() {
+        long start = startNanos;
+        if (start == 0) {
+            synchronized (this) {
+                if (startNanos == 0) startNanos = System.nanoTime();
+                start = startNanos;
+            }
+        }
+        return Math.min(lastClock, firstClock + (long) ((System.nanoTime() - start) / 1e9 * speed));
+    }
+
+    /** Moves the virtual clock forward to sec (not past the last recorded point) */
+    public void advanceTo(long sec) {
+        if (sec <= now) return;
+        now = Math.min(sec, lastClock);
+        if (now == lastClock && !finished) {
+            finished = true;
+            System.out.printf("Replay: end of recording reached (%s)%n", new Date(lastClock * 1000));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, MetricPoller.ZabbixValue>> getLastValuesAsync(Collection<Long> itemIds) {
+        long now = nowSec();
+        Map<Long, MetricPoller.ZabbixValue> out = new HashMap<>();
+        for (Long id : itemIds) {
+            Series s = series(id);
+            if (s == null) continue;
+            int i = s.floor(now);
+            if (i >= 0) out.put(id, new MetricPoller.ZabbixValue(s.values[i], s.clocks[i]));
+        }
+        return CompletableFuture.completedFuture(out);
+    }
+
+    @Override
+    public CompletableFuture<Void> readHistorySinceAsync(Collection<Long> itemIds, long timeFrom,
+                                                         JsonRpcCodec.HistorySink sink) {
+        long now = nowSec();
+        for (Long id : itemIds) {
+            Series s = series(id);
+            if (s == null) continue;
+            int i = s.floor(timeFrom - 1) + 1;
+            for (; i < s.size && s.clocks[i] <= now; i++) sink.accept(id, s.clocks[i], s.values[i]);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public int  getHistoryWindowSec()        { return historyWindowSec; }
+    public void setHistoryWindowSec(int sec) { this.historyWindowSec = sec; }
+
+    private Series series(Long id) {
+        long i = id - FIRST_ID;
+        return i >= 0 && i < series.size() ? series.get((int) i) : null;
+    }
+
+    /* ---------------- recording ---------------- */
+
+    /**
+     * Writes the history of the given (resolved) metrics since timeFrom to a
+     * gzip recording. Blocks until Zabbix has returned every chunk.
+     * @return number of points written
+     */
+    public static long record(ZabbixClient client, List<Metric> metrics, long timeFrom, Path file)
+            throws IOException {
+        Map<Long, List<Metric>> byItem = new HashMap<>();
+        for (Metric m : metrics) {
+            if (m.getMetricId() != null) byItem.computeIfAbsent(m.getMetricId(), k -> new ArrayList<>(1)).add(m);
+        }
+        long[] points = { 0 };
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(file), 1 << 16), StandardCharsets.UTF_8))) {
+            w.write("# clock\thost\tkey\tvalue\n");
+            IOException[] failed = { null };
+            client.readHistorySinceAsync(byItem.keySet(), timeFrom, (itemId, clock, value) -> {
+                synchronized (w) {                      // chunks arrive on several threads
+                    List<Metric> ms = byItem.get(itemId);
+                    if (ms == null) return;
+                    try {
+                        for (Metric m : ms) {
+                            w.write(clock + "\t" + m.getHost() + "\t" + m.getKey() + "\t" + value + "\n");
+                            points[0]++;
+                        }
+                    } catch (IOException e) {
+                        failed[0] = e;
+                    }
+                }
+            }).join();
+            if (failed[0] != null) throw failed[0];
+        } catch (java.util.concurrent.CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return points[0];
+    }
+}
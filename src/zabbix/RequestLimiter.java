@@ -0,0 +1,100 @@
+package zabbix;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of in-flight async requests without parking a thread:
+ * calls over the limit wait in a FIFO and are started as permits come back.
+ *
+ * The limit adapts (AIMD) between 1 and maxLimit: every fast success adds
+ * 1/limit (about +1 per round of requests), a failure or a response slower
+ * than slowNanos halves it. Only requests sent after the last decrease can
+ * decrease it again, so one burst of failures halves the limit once.
+ */
+final class RequestLimiter {
+
+    private final int maxLimit;
+    private final long slowNanos;
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecrease = System.nanoTime();
+
+    /**
+     * @param maxLimit  upper bound (and starting value) of the limit
+     * @param slowNanos round-trip time treated like a failure
+     */
+    RequestLimiter(int maxLimit, long slowNanos) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.slowNanos = slowNanos;
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Starts the call now or once a permit is free.
+     * @param isFailure which exceptional outcomes decrease the limit; the
+     *                  others release the permit like a success
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call, Predicate<Throwable> isFailure) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            long sentAt = System.nanoTime();
+            CompletableFuture<T> f;
+            try {
+                f = call.get();
+            } catch (Throwable t) {
+                release(false, sentAt);
+                result.completeExceptionally(t);
+                return;
+            }
+            f.whenCompleteAsync((v, e) -> {        // async hop: no recursion through release()
+                release(e == null || !isFailure.test(e), sentAt);
+                if (e != null) result.completeExceptionally(e);
+                else result.complete(v);
+            });
+        };
+
+        synchronized (this) {
+            if (inFlight >= (int) limit) {
+                waiting.add(start);
+                return result;
+            }
+            inFlight++;
+        }
+        start.run();
+        return result;
+    }
+
+    /** Number of requests currently on the wire */
+    synchronized int inFlight() { return inFlight; }
+
+    /** Number of requests waiting for a permit */
+    synchronized int queued()   { return waiting.size(); }
+
+    /** Current adaptive limit */
+    synchronized int limit()    { return (int) limit; }
+
+    private void release(boolean ok, long sentAt) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            inFlight--;
+            if (ok && now - sentAt < slowNanos) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            } else if (sentAt - lastDecrease > 0) {
+                limit = Math.max(1, limit / 2);
+                lastDecrease = now;
+            }
+        }
+        while (true) {                              // a grown limit may admit more than one
+            Runnable next;
+            synchronized (this) {
+                if (inFlight >= (int) limit || (next = waiting.poll()) == null) return;
+                inFlight++;
+            }
+            next.run();
+        }
+    }
+}
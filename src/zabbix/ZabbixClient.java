@@ -5,105 +5,610 @@ import config.Metric;
 
 import java.io.*;
 import java.net.*;
+import java.net.http.*;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
-import com.fasterxml.jackson.databind.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import stats.Histogram;
+import stats.Registry;
 
-public class ZabbixClient {
-    private static final ObjectMapper mapper = new ObjectMapper();
+/**
+ * ZabbixClient
+ * ------------
+ * JSON-RPC client for the Zabbix API on top of {@link java.net.http.HttpClient}:
+ * keep-alive connections, HTTP/2 where the server offers it, and at most
+ * {@code maxInFlight} concurrent requests (callers beyond that wait in a queue,
+ * not on a thread). The concurrency limit backs off when responses fail or
+ * slow down ({@link RequestLimiter}), and a {@link CircuitBreaker} stops
+ * sending after consecutive failures; its transitions go to the health
+ * listener. Every read has a CompletableFuture variant; the blocking
+ * methods simply wait for it. Requests and responses go through the streaming
+ * {@link JsonRpcCodec}. As a {@link MetricSource} it reads from history.get.
+ */
+public class ZabbixClient implements MetricSource {
+    /** Numeric history tables: 0 = float, 3 = unsigned integer */
+    private static final int[] NUMERIC_HISTORY = { 0, 3 };
 
-    private final String url;
-    private final String apiToken;
+    /** Max itemids per batched history.get request */
+    private static final int BATCH_CHUNK = 500;
+
+    /** Defaults used by the 2-arg constructor */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_REQUEST_TIMEOUT_MS = 10000;
+    public static final int DEFAULT_MAX_IN_FLIGHT      = 16;
+
+    /** Circuit breaker defaults: consecutive failures to open, first cooldown before the probe */
+    public static final int DEFAULT_BREAKER_FAILURES    = 5;
+    public static final int DEFAULT_BREAKER_COOLDOWN_MS = 10_000;
+    private static final long MAX_BREAKER_COOLDOWN_MS   = 5 * 60 * 1000;
+
+    /** Look-back window (sec) of batched reads; older items are read one by one */
+    public static final int DEFAULT_HISTORY_WINDOW_SEC = 600;
+
+    private final URI uri;
+    private final JsonRpcCodec codec;
+    private final HttpClient http;
+    private final Duration requestTimeout;
+    private final RequestLimiter limiter;
+    private volatile CircuitBreaker breaker;
+
+    /** Told false when the circuit breaker opens, true when it closes again */
+    private volatile Consumer<Boolean> healthListener = healthy -> {};
+
+    /** Look-back window (sec) used as time_from for batched reads */
+    private volatile int historyWindowSec = DEFAULT_HISTORY_WINDOW_SEC;
+
+    /** Min delay (ms) between value_type re-checks of an item that keeps returning nothing */
+    private static final long TYPE_RECHECK_MS = 10 * 60 * 1000;
+
+    /** key = itemId, value = Zabbix value_type (= history table) */
+    private final ConcurrentMap<Long, Integer> valueTypes = new ConcurrentHashMap<>();
+
+    /** key = itemId, value = last time (ms) its value_type was re-checked after an empty read */
+    private final ConcurrentMap<Long, Long> typeCheckedAt = new ConcurrentHashMap<>();
+
+    /* ---- instrumentation: send → parsed response, excluding the wait for a permit ---- */
+    private static final String RTT_NAME  = "zabbix_alerter_zabbix_request_seconds";
+    private static final String RTT_HELP  = "Zabbix API round-trip time, request sent to response parsed";
+    private static final String FAIL_NAME = "zabbix_alerter_zabbix_request_failures_total";
+    private static final String FAIL_HELP = "Zabbix API requests that failed (transport, HTTP or API error)";
+    private static final Histogram RTT_ITEM_GET    = Registry.histogram(RTT_NAME, RTT_HELP, "method=\"item.get\"");
+    private static final Histogram RTT_HISTORY_GET = Registry.histogram(RTT_NAME, RTT_HELP, "method=\"history.get\"");
+    private static final LongAdder FAIL_ITEM_GET    = Registry.counter(FAIL_NAME, FAIL_HELP, "method=\"item.get\"");
+    private static final LongAdder FAIL_HISTORY_GET = Registry.counter(FAIL_NAME, FAIL_HELP, "method=\"history.get\"");
+    private static final LongAdder REJECTED = Registry.counter("zabbix_alerter_zabbix_rejected_total",
+            "Zabbix API requests not sent because the circuit breaker is open", "");
 
     public ZabbixClient(String url, String apiToken) {
-        this.url = url;
-        this.apiToken = apiToken;
+        this(url, apiToken, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_REQUEST_TIMEOUT_MS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param connectTimeoutMs TCP/TLS connect timeout
+     * @param requestTimeoutMs per-request timeout (until response headers arrive)
+     * @param maxInFlight      max concurrent requests (= max open connections on HTTP/1.1)
+     */
+    public ZabbixClient(String url, String apiToken,
+                        int connectTimeoutMs, int requestTimeoutMs, int maxInFlight) {
+        this.uri = URI.create(url);
+        this.codec = new JsonRpcCodec(apiToken);
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.limiter = new RequestLimiter(maxInFlight, TimeUnit.MILLISECONDS.toNanos(requestTimeoutMs) / 2);
+        setCircuitBreaker(DEFAULT_BREAKER_FAILURES, DEFAULT_BREAKER_COOLDOWN_MS);
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)            // falls back to HTTP/1.1
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
     }
 
     // Получить itemid по host+key
     public Long resolveItemId(String host, String key) throws IOException {
-        String reqId = UUID.randomUUID().toString();
-        Map<String, Object> params = new HashMap<>();
-        params.put("output", new String[] { "itemid" });
-        params.put("filter", Map.of("host", host));  // исправили!
-        params.put("search", Map.of("key_", key));
-        params.put("limit", 1);
-
-        Map<String, Object> request = new HashMap<>();
-        request.put("jsonrpc", "2.0");
-        request.put("method", "item.get");
-        request.put("params", params);
-        request.put("auth", apiToken);
-        request.put("id", reqId);
-
-        String json = mapper.writeValueAsString(request);
-        String response = doPost(json);
-        JsonNode resp = mapper.readTree(response);
-
-        if (resp.has("result") && resp.get("result").isArray() && resp.get("result").size() > 0) {
-            return resp.get("result").get(0).get("itemid").asLong();
-        }
-        return null;
+        return await(resolveItemIdAsync(host, key));
+    }
+
+    public CompletableFuture<Long> resolveItemIdAsync(String host, String key) {
+        return callAsync("item.get", g -> {
+            g.writeStartObject();
+            writeStrings(g, "output", "itemid", "value_type");
+            g.writeObjectFieldStart("filter");
+            g.writeStringField("host", host);                   // исправили!
+            g.writeEndObject();
+            g.writeObjectFieldStart("search");
+            g.writeStringField("key_", key);
+            g.writeEndObject();
+            g.writeNumberField("limit", 1);
+            g.writeEndObject();
+        }, in -> {
+            long[] found = { 0 };
+            JsonRpcCodec.readItems(in, item -> {
+                if (found[0] != 0) return;
+                found[0] = item.itemId;
+                valueTypes.put(item.itemId, item.valueType);
+            });
+            return found[0] != 0 ? found[0] : null;
+        });
+    }
+
+    /**
+     * Bulk resolution for one host: a single item.get with all keys as an exact
+     * key_ filter. Keys without an exact match fall back to a key_ search, as
+     * {@link #resolveItemId} does, but in one more item.get for all of them
+     * (searchByAny), matched locally: the first item whose key contains the
+     * configured one, ignoring case like Zabbix's search. Returns key -> itemId
+     * for the keys found.
+     */
+    public Map<String, Long> resolveItemIds(String host, Collection<String> keys) throws IOException {
+        Map<String, Long> ids = await(callAsync("item.get", g -> {
+            g.writeStartObject();
+            writeStrings(g, "output", "itemid", "key_", "value_type");
+            g.writeObjectFieldStart("filter");
+            g.writeStringField("host", host);
+            g.writeArrayFieldStart("key_");
+            for (String k : keys) g.writeString(k);
+            g.writeEndArray();
+            g.writeEndObject();
+            g.writeEndObject();
+        }, in -> {
+            Map<String, Long> found = new HashMap<>();
+            JsonRpcCodec.readItems(in, item -> {
+                found.put(item.key, item.itemId);
+                valueTypes.put(item.itemId, item.valueType);
+            });
+            return found;
+        }));
+
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) if (!ids.containsKey(key)) missing.add(key);
+        if (missing.isEmpty()) return ids;
+        String[] lower = new String[missing.size()];
+        for (int i = 0; i < lower.length; i++) lower[i] = missing.get(i).toLowerCase(Locale.ROOT);
+
+        Map<String, Long> searched = await(callAsync("item.get", g -> {
+            g.writeStartObject();
+            writeStrings(g, "output", "itemid", "key_", "value_type");
+            g.writeObjectFieldStart("filter");
+            g.writeStringField("host", host);
+            g.writeEndObject();
+            g.writeObjectFieldStart("search");
+            g.writeArrayFieldStart("key_");
+            for (String k : missing) g.writeString(k);
+            g.writeEndArray();
+            g.writeEndObject();
+            g.writeBooleanField("searchByAny", true);
+            g.writeEndObject();
+        }, in -> {
+            Map<String, Long> found = new HashMap<>();
+            JsonRpcCodec.readItems(in, item -> {
+                String itemKey = item.key.toLowerCase(Locale.ROOT);
+                for (int i = 0; i < lower.length; i++) {
+                    String k = missing.get(i);
+                    if (found.containsKey(k) || !itemKey.contains(lower[i])) continue;
+                    found.put(k, item.itemId);
+                    valueTypes.put(item.itemId, item.valueType);
+                }
+            });
+            return found;
+        }));
+        ids.putAll(searched);
+        return ids;
     }
 
+    /** Cached value_type of a resolved item, or null if unknown */
+    public Integer getValueType(long itemId) {
+        return valueTypes.get(itemId);
+    }
 
+    /** Seeds the value_type cache (e.g. from a persisted item cache) */
+    public void setValueType(long itemId, int valueType) {
+        valueTypes.put(itemId, valueType);
+    }
 
     // Returns the latest value and clock for a metric
     public alerter.MetricPoller.ZabbixValue getLastValueAndClock(Long itemId) throws IOException {
-        alerter.MetricPoller.ZabbixValue val = getHistoryValue(itemId, 0); // сначала пробуем float
-        if (val == null) {
-            val = getHistoryValue(itemId, 3); // если нет, пробуем integer
+        return await(getLastValueAndClockAsync(itemId));
+    }
+
+    public CompletableFuture<alerter.MetricPoller.ZabbixValue> getLastValueAndClockAsync(Long itemId) {
+        List<Long> one = Collections.singletonList(itemId);
+        CompletableFuture<Integer> type = valueTypes.containsKey(itemId)
+                ? CompletableFuture.completedFuture(valueTypes.get(itemId))
+                : refreshValueTypesAsync(one).thenApply(m -> m.get(itemId));
+
+        return type.thenCompose(t -> {
+            if (t == null) return CompletableFuture.completedFuture(null);   // item is gone
+            return getHistoryValueAsync(itemId, t).thenCompose(val -> {
+                if (val != null) return CompletableFuture.completedFuture(val);
+                /* empty read: the item may have changed its type */
+                return recheckValueTypesAsync(one).thenCompose(changed -> {
+                    Integer fresh = changed.get(itemId);
+                    return fresh != null
+                            ? getHistoryValueAsync(itemId, fresh)
+                            : CompletableFuture.completedFuture(null);
+                });
+            });
+        });
+    }
+
+    /**
+     * Batched read: latest value/clock for every given item.
+     * Items are grouped by cached value_type and sent in chunks of
+     * {@value #BATCH_CHUNK} to their own history table, limited to the last
+     * {@code historyWindowSec} seconds; all chunks are in flight concurrently.
+     * Items that come back empty get their value_type re-checked and, if it
+     * changed, are read again from the new table. Items still empty (no point
+     * inside the window, e.g. updated hourly) get their lastvalue / lastclock
+     * from one item.get per chunk, so the result holds the latest value
+     * whatever its age; only items without any value are absent.
+     */
+    public Map<Long, alerter.MetricPoller.ZabbixValue> getLastValues(Collection<Long> itemIds) throws IOException {
+        return await(getLastValuesAsync(itemIds));
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, alerter.MetricPoller.ZabbixValue>> getLastValuesAsync(Collection<Long> itemIds) {
+        long timeFrom = System.currentTimeMillis() / 1000 - historyWindowSec;
+
+        List<Long> unknown = new ArrayList<>();
+        for (Long id : itemIds) if (!valueTypes.containsKey(id)) unknown.add(id);
+        CompletableFuture<?> typesReady = unknown.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : refreshValueTypesAsync(unknown);
+
+        return typesReady
+                .thenCompose(x -> readByType(itemIds, timeFrom, new ConcurrentHashMap<>()))
+                .thenCompose(out -> {
+                    /* empty items: re-check value_type, re-read the ones that moved */
+                    List<Long> empty = new ArrayList<>();
+                    for (Long id : itemIds) if (!out.containsKey(id)) empty.add(id);
+                    if (empty.isEmpty()) return CompletableFuture.completedFuture(out);
+                    return recheckValueTypesAsync(empty).thenCompose(changed -> changed.isEmpty()
+                            ? CompletableFuture.completedFuture(out)
+                            : readByType(changed.keySet(), timeFrom, out));
+                })
+                .thenCompose(out -> readLatestOutsideWindow(itemIds, out));
+    }
+
+    // One chunked item.get (lastvalue / lastclock) for the items the windowed batch found nothing for
+    private CompletableFuture<Map<Long, alerter.MetricPoller.ZabbixValue>> readLatestOutsideWindow(
+            Collection<Long> itemIds, Map<Long, alerter.MetricPoller.ZabbixValue> out) {
+        List<Long> empty = new ArrayList<>();
+        for (Long id : itemIds) {
+            Integer t = valueTypes.get(id);
+            if (!out.containsKey(id) && t != null && (t == 0 || t == 3)) empty.add(id);
         }
-        return val;
-    }
-
-    private alerter.MetricPoller.ZabbixValue getHistoryValue(Long itemId, int historyType) throws IOException {
-        String reqId = java.util.UUID.randomUUID().toString();
-        Map<String, Object> params = new HashMap<>();
-        params.put("output", "extend");
-        params.put("history", historyType); // тип данных
-        params.put("itemids", Collections.singletonList(itemId));
-        params.put("sortfield", "clock");
-        params.put("sortorder", "DESC");
-        params.put("limit", 1);
-
-        Map<String, Object> request = new HashMap<>();
-        request.put("jsonrpc", "2.0");
-        request.put("method", "history.get");
-        request.put("params", params);
-        request.put("auth", apiToken);
-        request.put("id", reqId);
-
-        String json = mapper.writeValueAsString(request);
-        String response = doPost(json);
-        JsonNode resp = mapper.readTree(response);
-
-        if (resp.has("result") && resp.get("result").isArray() && resp.get("result").size() > 0) {
-            JsonNode rec = resp.get("result").get(0);
-            double value = Double.parseDouble(rec.get("value").asText().replace(",", "."));
-            long clock = rec.get("clock").asLong();
-            return new alerter.MetricPoller.ZabbixValue(value, clock);
+        if (empty.isEmpty()) return CompletableFuture.completedFuture(out);
+        return getItemLastValuesAsync(empty).thenApply(latest -> {
+            latest.forEach(out::putIfAbsent);
+            return out;
+        });
+    }
+
+    /**
+     * Incremental read: every numeric point with clock >= timeFrom for the
+     * given items, oldest first, streamed into the sink. Items are grouped by
+     * value_type and chunked like {@link #getLastValuesAsync}; chunks run
+     * concurrently, so the sink is called from several threads, but all points
+     * of one item arrive from one thread and in clock order.
+     */
+    @Override
+    public CompletableFuture<Void> readHistorySinceAsync(Collection<Long> itemIds, long timeFrom,
+                                                         JsonRpcCodec.HistorySink sink) {
+        List<Long> unknown = new ArrayList<>();
+        for (Long id : itemIds) if (!valueTypes.containsKey(id)) unknown.add(id);
+        CompletableFuture<?> typesReady = unknown.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : refreshValueTypesAsync(unknown);
+
+        return typesReady.thenCompose(x -> {
+            List<CompletableFuture<Void>> parts = new ArrayList<>();
+            for (int historyType : NUMERIC_HISTORY) {
+                List<Long> group = new ArrayList<>();
+                for (Long id : itemIds) {
+                    Integer t = valueTypes.get(id);
+                    if (t != null && t == historyType) group.add(id);
+                }
+                for (int i = 0; i < group.size(); i += BATCH_CHUNK) {
+                    List<Long> chunk = group.subList(i, Math.min(group.size(), i + BATCH_CHUNK));
+                    parts.add(this.<Void>callAsync("history.get", g -> {
+                        g.writeStartObject();
+                        writeStrings(g, "output", "itemid", "clock", "value");
+                        g.writeNumberField("history", historyType);
+                        writeIds(g, chunk);
+                        g.writeNumberField("time_from", timeFrom);
+                        g.writeStringField("sortfield", "clock");
+                        g.writeStringField("sortorder", "ASC");
+                        g.writeEndObject();
+                    }, in -> {
+                        JsonRpcCodec.readHistory(in, (itemId, clock, value) -> {
+                            if (!Double.isNaN(value)) sink.accept(itemId, clock, value);
+                        });
+                        return null;
+                    }));
+                }
+            }
+            return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]));
+        });
+    }
+
+    @Override
+    public int  getHistoryWindowSec()        { return historyWindowSec; }
+    public void setHistoryWindowSec(int sec) { this.historyWindowSec = Math.max(1, sec); }
+
+    /**
+     * Batched read from the items themselves: lastvalue / lastclock with one
+     * item.get per {@value #BATCH_CHUNK} items, all chunks in flight
+     * concurrently. Zabbix answers from its value cache, no history table is
+     * queried; the value_type cache is refreshed on the way. The latest value
+     * is returned whatever its age, as with {@link #getLastValuesAsync};
+     * non-numeric items and items without a value are absent from the result.
+     */
+    public CompletableFuture<Map<Long, alerter.MetricPoller.ZabbixValue>> getItemLastValuesAsync(
+            Collection<Long> itemIds) {
+        List<Long> ids = new ArrayList<>(itemIds);
+        Map<Long, alerter.MetricPoller.ZabbixValue> out = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += BATCH_CHUNK) {
+            List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + BATCH_CHUNK));
+            parts.add(this.<Void>callAsync("item.get", g -> {
+                g.writeStartObject();
+                writeStrings(g, "output", "itemid", "value_type", "lastvalue", "lastclock");
+                writeIds(g, chunk);
+                g.writeEndObject();
+            }, in -> {
+                JsonRpcCodec.readItems(in, item -> {
+                    if (item.valueType >= 0) valueTypes.put(item.itemId, item.valueType);
+                    if (item.valueType != 0 && item.valueType != 3) return;   // not numeric
+                    if (Double.isNaN(item.lastValue) || item.lastClock <= 0) return;
+                    out.put(item.itemId, new alerter.MetricPoller.ZabbixValue(item.lastValue, item.lastClock));
+                });
+                return null;
+            }));
         }
-        return null;
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(x -> out);
     }
 
+    // Groups items by cached value_type and reads every numeric group chunk concurrently
+    private CompletableFuture<Map<Long, alerter.MetricPoller.ZabbixValue>> readByType(
+            Collection<Long> itemIds, long timeFrom, Map<Long, alerter.MetricPoller.ZabbixValue> out) {
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (int historyType : NUMERIC_HISTORY) {
+            List<Long> group = new ArrayList<>();
+            for (Long id : itemIds) {
+                Integer t = valueTypes.get(id);
+                if (t != null && t == historyType) group.add(id);
+            }
+            for (int i = 0; i < group.size(); i += BATCH_CHUNK) {
+                parts.add(collectHistory(group.subList(i, Math.min(group.size(), i + BATCH_CHUNK)),
+                        historyType, timeFrom, out));
+            }
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(x -> out);
+    }
+
+    // One history.get for a chunk of items; keeps only the newest record per item
+    private CompletableFuture<Void> collectHistory(List<Long> itemIds, int historyType, long timeFrom,
+                                                   Map<Long, alerter.MetricPoller.ZabbixValue> out) {
+        return callAsync("history.get", g -> {
+            g.writeStartObject();
+            writeStrings(g, "output", "itemid", "clock", "value");
+            g.writeNumberField("history", historyType);
+            writeIds(g, itemIds);
+            g.writeNumberField("time_from", timeFrom);
+            g.writeStringField("sortfield", "clock");
+            g.writeStringField("sortorder", "DESC");
+            g.writeEndObject();
+        }, in -> {
+            JsonRpcCodec.readHistory(in, (itemId, clock, value) -> {
+                if (Double.isNaN(value)) return;                        // not numeric
+                alerter.MetricPoller.ZabbixValue prev = out.get(itemId);
+                if (prev != null && prev.clock >= clock) return;        // already have newer
+                out.put(itemId, new alerter.MetricPoller.ZabbixValue(value, clock));
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Re-reads value_type for items that returned no data, at most once per
+     * {@link #TYPE_RECHECK_MS} per item. Completes with only the items whose type changed.
+     */
+    private CompletableFuture<Map<Long, Integer>> recheckValueTypesAsync(List<Long> itemIds) {
+        long now = System.currentTimeMillis();
+        List<Long> due = new ArrayList<>();
+        for (Long id : itemIds) {
+            Long last = typeCheckedAt.get(id);
+            if (last == null || now - last >= TYPE_RECHECK_MS) {
+                typeCheckedAt.put(id, now);
+                due.add(id);
+            }
+        }
+        if (due.isEmpty()) return CompletableFuture.completedFuture(Collections.emptyMap());
+
+        Map<Long, Integer> before = new HashMap<>();
+        for (Long id : due) before.put(id, valueTypes.get(id));
+
+        return refreshValueTypesAsync(due).thenApply(fetched -> {
+            Map<Long, Integer> changed = new HashMap<>();
+            for (Map.Entry<Long, Integer> e : fetched.entrySet()) {
+                if (!e.getValue().equals(before.get(e.getKey()))) {
+                    changed.put(e.getKey(), e.getValue());
+                    typeCheckedAt.remove(e.getKey());
+                }
+            }
+            return changed;
+        });
+    }
+
+    // item.get by itemids; updates the value_type cache and completes with the fetched types
+    private CompletableFuture<Map<Long, Integer>> refreshValueTypesAsync(List<Long> itemIds) {
+        Map<Long, Integer> types = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        for (int i = 0; i < itemIds.size(); i += BATCH_CHUNK) {
+            List<Long> chunk = itemIds.subList(i, Math.min(itemIds.size(), i + BATCH_CHUNK));
+            parts.add(this.<Void>callAsync("item.get", g -> {
+                g.writeStartObject();
+                writeStrings(g, "output", "itemid", "value_type");
+                writeIds(g, chunk);
+                g.writeEndObject();
+            }, in -> {
+                JsonRpcCodec.readItems(in, item -> types.put(item.itemId, item.valueType));
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(x -> {
+            valueTypes.putAll(types);
+            return types;
+        });
+    }
+
+    private CompletableFuture<alerter.MetricPoller.ZabbixValue> getHistoryValueAsync(Long itemId, int historyType) {
+        return callAsync("history.get", g -> {
+            g.writeStartObject();
+            writeStrings(g, "output", "itemid", "clock", "value");
+            g.writeNumberField("history", historyType); // тип данных (= value_type)
+            writeIds(g, Collections.singletonList(itemId));
+            g.writeStringField("sortfield", "clock");
+            g.writeStringField("sortorder", "DESC");
+            g.writeNumberField("limit", 1);
+            g.writeEndObject();
+        }, in -> {
+            alerter.MetricPoller.ZabbixValue[] last = { null };
+            JsonRpcCodec.readHistory(in, (id, clock, value) -> {
+                if (last[0] == null && !Double.isNaN(value))
+                    last[0] = new alerter.MetricPoller.ZabbixValue(value, clock);
+            });
+            return last[0];
+        });
+    }
+
+    /* ---------------- transport ---------------- */
+
+    /** Parses a response body streamed from the connection. */
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    /** Sends one JSON-RPC request and parses the response with the given reader. */
+    private <T> CompletableFuture<T> callAsync(String method, JsonRpcCodec.ParamsWriter params,
+                                               ResponseReader<T> reader) {
+        byte[] body;
+        try {
+            body = codec.encode(method, params);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-    private String doPost(String json) throws IOException {
-        URL u = new URL(url);
-        HttpURLConnection c = (HttpURLConnection) u.openConnection();
-        c.setRequestMethod("POST");
-        c.setDoOutput(true);
-        c.setRequestProperty("Content-Type", "application/json");
-        c.setConnectTimeout(5000);
-        c.setReadTimeout(10000);
+        HttpRequest req = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
 
-        try (OutputStream os = c.getOutputStream()) {
-            os.write(json.getBytes(StandardCharsets.UTF_8));
+        CircuitBreaker cb = breaker;
+        CircuitBreaker.Permit permit = cb.acquire();
+        if (permit == null) {
+            REJECTED.increment();
+            return CompletableFuture.failedFuture(new IOException("Zabbix circuit open, " + method + " not sent"));
         }
 
-        try (InputStream is = c.getInputStream()) {
-            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        boolean history = "history.get".equals(method);
+        long[] sentAt = new long[1];
+        return limiter.submit(() -> {       // parsed inside the permit: RTT includes parsing
+                    sentAt[0] = System.nanoTime();
+                    return http.sendAsync(req, HttpResponse.BodyHandlers.ofInputStream())
+                            .thenApply(resp -> {
+                                try (InputStream in = resp.body()) {
+                                    if (resp.statusCode() != 200) {
+                                        throw new HttpStatusException(resp.statusCode(), uri);
+                                    }
+                                    return reader.read(in);
+                                } catch (IOException e) {
+                                    throw new CompletionException(e);
+                                }
+                            });
+                }, ZabbixClient::isOverload)
+                .whenComplete((r, err) -> {
+                    cb.record(permit, err == null || !isOverload(err));
+                    if (sentAt[0] != 0) (history ? RTT_HISTORY_GET : RTT_ITEM_GET).recordSince(sentAt[0]);
+                    if (err != null) (history ? FAIL_HISTORY_GET : FAIL_ITEM_GET).increment();
+                });
+    }
+
+    /**
+     * Replaces the circuit breaker (call before the first request).
+     * @param failureThreshold consecutive failed requests that open it
+     * @param cooldownMs       first wait before the probe; doubles while probes fail, up to 5 min
+     */
+    public void setCircuitBreaker(int failureThreshold, int cooldownMs) {
+        CircuitBreaker b = new CircuitBreaker(failureThreshold, cooldownMs, MAX_BREAKER_COOLDOWN_MS);
+        b.setListener(healthy -> healthListener.accept(healthy));
+        breaker = b;
+    }
+
+    public void setHealthListener(Consumer<Boolean> l) { this.healthListener = l; }
+
+    /** True while requests fail fast (breaker open or probing) */
+    public boolean isCircuitOpen()     { return breaker.state() != CircuitBreaker.State.CLOSED; }
+
+    /** Current adaptive in-flight limit */
+    public int getConcurrencyLimit()   { return limiter.limit(); }
+
+    /** Requests currently sent and awaiting a response */
+    public int getInFlight() { return limiter.inFlight(); }
+
+    /** Requests waiting for a free in-flight permit */
+    public int getQueued()   { return limiter.queued(); }
+
+    private static void writeStrings(JsonGenerator g, String field, String... values) throws IOException {
+        g.writeArrayFieldStart(field);
+        for (String v : values) g.writeString(v);
+        g.writeEndArray();
+    }
+
+    private static void writeIds(JsonGenerator g, Collection<Long> itemIds) throws IOException {
+        g.writeArrayFieldStart("itemids");
+        for (Long id : itemIds) g.writeNumber(id);
+        g.writeEndArray();
+    }
+
+    /**
+     * True for failures that say the frontend is unhealthy: transport errors,
+     * timeouts, HTTP 5xx, unparsable responses. A JSON-RPC error or an HTTP 4xx
+     * is an answer to a bad request, so the breaker and the limiter count it
+     * as a success.
+     */
+    private static boolean isOverload(Throwable err) {
+        Throwable c = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        if (c instanceof JsonRpcCodec.ApiException) return false;
+        return !(c instanceof HttpStatusException) || ((HttpStatusException) c).status >= 500;
+    }
+
+    /** Waits for an async call, rethrowing its failure as IOException. */
+    private static <T> T await(CompletableFuture<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for Zabbix");
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause() != null ? e.getCause() : e;
+            if (c instanceof IOException && c.getMessage() != null) throw (IOException) c;
+            throw new IOException(c.getMessage() != null ? c.getMessage() : c.toString(), c);
+        }
+    }
+
+    /** Non-200 HTTP status from the frontend */
+    private static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        HttpStatusException(int status, URI uri) {
+            super("Zabbix HTTP " + status + " from " + uri);
+            this.status = status;
         }
     }
 }